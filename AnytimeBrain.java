@@ -0,0 +1,25 @@
+// AnytimeBrain.java -- the interface for brains that can work to a deadline
+
+public interface AnytimeBrain extends Brain {
+    /**
+     Like Brain.bestMove(), but returns by the deadline, a System.nanoTime()
+     value. The brain searches deeper and deeper while time remains and
+     returns the best move of the deepest search it got through; if time
+     runs out in the very first pass, it returns the best of the plays it
+     rated. Returns null only if no play is possible, or if the deadline
+     has already passed before a single play was rated.
+     e.g. bestMove(board, piece, 20, null, System.nanoTime() + 50000000L)
+     for a 50ms budget.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move, long deadline);
+
+    /**
+     Makes a bestMove() running in another thread return as soon as it can,
+     with the best move found so far -- e.g. when the piece it is working on
+     has landed. Only stops the search running at the time: with none
+     running it does nothing, and it never carries over to a later
+     bestMove(). A cancelled bestMove() still rates at least one play, so
+     it returns null only if no play is possible.
+    */
+    public void cancel();
+}
@@ -0,0 +1,75 @@
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/*
+  Unit tests for the BatchRunner class.
+ */
+public class BatchRunnerTest {
+	// Games depend on their seed, not on the thread that plays them
+	@Test
+	public void testThreads() throws Exception {
+		BatchRunner one = new BatchRunner(new String[] {"-games", "6", "-threads", "1", "-seed", "3", "-limit", "300"});
+		BatchRunner three = new BatchRunner(new String[] {"-games", "6", "-threads", "3", "-seed", "3", "-limit", "300"});
+		one.run();
+		three.run();
+		for (int m=0; m<BatchRunner.METRICS.length; m++) {
+			for (int i=0; i<6; i++) {
+				assertEquals(one.getResult(m, i), three.getResult(m, i));
+			}
+		}
+		for (int i=0; i<6; i++) {
+			assertTrue(one.getResult(0, i) > 0 && one.getResult(0, i) <= 300);
+			assertTrue(one.getResult(1, i) > one.getResult(0, i));
+		}
+		assertTrue(one.getPiecesPerSecond() > 0);
+
+		java.io.StringWriter json = new java.io.StringWriter();
+		BatchRunner small = new BatchRunner(new String[] {"-games", "2", "-limit", "50", "-format", "json"});
+		small.run();
+		small.writeSummary(json);
+		java.io.StringWriter games = new java.io.StringWriter();
+		small.writeGames(games);
+		assertEquals(3, games.toString().split("\n").length);
+		assertTrue(json.toString().contains("\"piecesPerSecond\""));
+		assertTrue(json.toString().contains("\"histogram\""));
+	}
+
+	// Brains are checked by name up front, and montecarlo runs in a pool the run shuts down
+	@Test
+	public void testBrains() throws Exception {
+		try {
+			new BatchRunner(new String[] {"-brain", "beam"});
+			fail("beam accepted");
+		}
+		catch (RuntimeException expected) {
+		}
+		BatchRunner runner = new BatchRunner(new String[] {"-brain", "montecarlo", "-games", "2", "-threads", "2", "-limit", "5"});
+		runner.run();
+		for (int i=0; i<2; i++) assertEquals(5, runner.getResult(0, i));
+	}
+
+	// Percentiles are nearest-rank, and the histogram covers every value
+	@Test
+	public void testSummary() {
+		long[] values = new long[100];
+		for (int i=0; i<100; i++) values[i] = 100 - i;
+		BatchRunner.Summary s = new BatchRunner.Summary(values);
+		assertEquals(50.5, s.mean, 1e-9);
+		assertEquals(1, s.min);
+		assertEquals(10, s.p10);
+		assertEquals(50, s.p50);
+		assertEquals(99, s.p99);
+		assertEquals(100, s.max);
+		assertEquals(BatchRunner.BUCKETS, s.bucketCount.length);
+		int total = 0;
+		for (int count : s.bucketCount) total += count;
+		assertEquals(100, total);
+		assertEquals(1, s.bucketStart[0]);
+
+		s = new BatchRunner.Summary(new long[] {7, 7, 7});
+		assertEquals(1, s.bucketCount.length);
+		assertEquals(3, s.bucketCount[0]);
+		assertEquals(0.0, s.stddev, 0.0);
+	}
+}
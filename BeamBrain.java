@@ -0,0 +1,400 @@
+// BeamBrain.java
+
+/**
+ A Brain that looks ahead through a preview of the coming pieces with a
+ beam search. Ply 0 plays the current piece every possible way; each
+ later ply plays the next preview piece on every board kept from the ply
+ before. Only the beamWidth best boards of each ply (by the evaluator's
+ score) are kept, so the cost per piece is bounded by about
+ depth x beamWidth x (plays per piece) board ratings, whatever happens.
+ The move returned is the first play on the path to the best board of
+ the deepest ply reached.
+
+ Children are rated by place/clearRows/undo on their parent's board, and
+ only the ones that make the beam are copied out into boards of their
+ own. The beam's boards are allocated once and reused from piece to piece.
+
+ With depth 1, or no preview, this plays exactly like the evaluator.
+
+ As an AnytimeBrain it deepens iteratively: depth 1, then 2, and so on up
+ to the configured depth, keeping the result of the deepest pass that got
+ through, so a deadline costs lookahead rather than a move.
+ Not thread safe, except for cancel() and isSearching().
+*/
+public class BeamBrain implements AnytimeBrain {
+    private final DefaultBrain evaluator;
+    private int beamWidth;
+    private int depth;
+    private Piece[] preview = new Piece[0];
+
+    // The current beam and the one being built, beamWidth boards each
+    private Board[] beam = new Board[0];
+    private Board[] nextBeam = new Board[0];
+    private int beamSize;
+
+    // Per beam entry: the play of the current piece it descends from
+    private Piece[] rootPiece, nextRootPiece;
+    private int[] rootX, nextRootX, rootY, nextRootY;
+
+    // The best children found so far in the ply being expanded, best first
+    private double[] childScore;
+    private int[] childParent, childX, childY;
+    private Piece[] childPiece;
+    private int childCount;
+
+    private double beamScore;       // score of the best entry of the beam
+
+    private long deadline;          // System.nanoTime() to stop at, if timed
+    private boolean timed;
+    private boolean stopped;        // the search ran out of time or was cancelled
+    private long generation;                // numbers the searches, from 1
+    private volatile long running;          // the generation of the search in progress, 0 for none
+    private volatile long cancelled;        // the generation cancel() stopped
+    private int completedDepth;     // plies searched by the last bestMove()
+
+    private long nodes;     // boards rated since the counters were reset
+    private long nanos;     // time spent in bestMove() since the counters were reset
+
+    /**
+     Creates a beam search brain that rates boards with DefaultBrain.
+    */
+    public BeamBrain(int beamWidth, int depth) {
+        this(new DefaultBrain(), beamWidth, depth);
+    }
+
+    /**
+     Creates a beam search brain that rates boards with the given evaluator.
+     depth counts the current piece, so depth 1 is a greedy brain.
+    */
+    public BeamBrain(DefaultBrain evaluator, int beamWidth, int depth) {
+        this.evaluator = evaluator;
+        setBeamWidth(beamWidth);
+        setDepth(depth);
+    }
+
+    public void setBeamWidth(int beamWidth) {
+        if (beamWidth < 1) throw new RuntimeException("Beam width must be at least 1");
+        this.beamWidth = beamWidth;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    /**
+     Sets the number of pieces searched, including the current one.
+    */
+    public void setDepth(int depth) {
+        if (depth < 1) throw new RuntimeException("Depth must be at least 1");
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     Sets the pieces that will follow the current one, next piece first,
+     for the following bestMove() calls. Only the first depth-1 are used.
+    */
+    public void setPreview(Piece[] preview) {
+        this.preview = (preview == null) ? new Piece[0] : preview;
+    }
+
+    /**
+     Given a piece and a board, returns a move object that represents
+     the best play for that piece, or returns null if no play is possible.
+     Looks ahead through the preview set by setPreview().
+     See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, preview, limitHeight, move);
+    }
+
+    /**
+     Like bestMove(board, piece, limitHeight, move), looking ahead
+     through the given preview, next piece first.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        timed = false;
+        return search(board, piece, preview, limitHeight, move, false);
+    }
+
+    /**
+     Deadline version of bestMove(), looking ahead through the preview set
+     by setPreview(). See the AnytimeBrain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move, long deadline) {
+        return bestMove(board, piece, preview, limitHeight, move, deadline);
+    }
+
+    /**
+     Deadline version of bestMove(), looking ahead through the given preview.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move, long deadline) {
+        this.deadline = deadline;
+        timed = true;
+        return search(board, piece, preview, limitHeight, move, true);
+    }
+
+    public void cancel() {
+        cancelled = running;    // 0, matching no search, if none is running
+    }
+
+    /**
+     Returns true while a bestMove() is running.
+    */
+    public boolean isSearching() {
+        return running != 0;
+    }
+
+    /**
+     Returns the number of plies the last bestMove() got through -- less
+     than the depth if it ran out of time, was cancelled or ran out of preview.
+    */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /*
+     Runs the search at full depth, or deepening one ply at a time.
+    */
+    private Brain.Move search(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move, boolean deepen) {
+        long start = System.nanoTime();
+        board.commit();
+        allocate(board);
+        running = ++generation;
+        stopped = false;
+        completedDepth = 0;
+
+        int plies = Math.min(depth, preview.length + 1);
+        Piece bestPiece = null;
+        int bestX = 0, bestY = 0;
+        double bestScore = 0;
+        for (int d=(deepen ? 1 : plies); d<=plies; d++) {
+            int done = run(board, piece, preview, d, limitHeight);
+            if (done >= 1 && done >= completedDepth) {
+                // a pass that stopped after k plies is as good as a finished depth k pass
+                bestPiece = rootPiece[0];    // the beam is kept best first
+                bestX = rootX[0];
+                bestY = rootY[0];
+                bestScore = beamScore;
+                completedDepth = done;
+            }
+            else if (done == 0 && bestPiece == null && childCount > 0) {
+                // out of time in the first ply: the best of the plays rated so far
+                bestPiece = childPiece[0];
+                bestX = childX[0];
+                bestY = childY[0];
+                bestScore = childScore[0];
+            }
+            if (stopped || done < d) break;    // out of time, or every line dies before depth d
+        }
+        nanos += System.nanoTime() - start;
+        running = 0;
+
+        if (bestPiece == null) return(null);    // could not find a play at all!
+        if (move==null) move = new Brain.Move();
+        move.piece = bestPiece;
+        move.x = bestX;
+        move.y = bestY;
+        move.score = bestScore;
+        return(move);
+    }
+
+    /*
+     One beam search pass of the given number of plies. Returns the number
+     of plies that were completed, leaving the result in the beam.
+    */
+    private int run(Board board, Piece piece, Piece[] preview, int plies, int limitHeight) {
+        // ply 0: the plays of the current piece, on the caller's board
+        childCount = 0;
+        expand(board, 0, piece, limitHeight);
+        if (childCount == 0 || stopped) return 0;
+        keep(board, true);
+
+        for (int ply=1; ply<plies; ply++) {
+            childCount = 0;
+            for (int i=0; i<beamSize && !stopped; i++) {
+                expand(beam[i], i, preview[ply-1], limitHeight);
+            }
+            if (childCount == 0 || stopped) return ply;    // every line dies here, or out of time: go with the last ply
+            keep(null, false);
+        }
+        return plies;
+    }
+
+    /*
+     Sizes the beam arrays for the beam width and the board's size.
+    */
+    private void allocate(Board board) {
+        if (beam.length != beamWidth) {
+            beam = new Board[beamWidth];
+            nextBeam = new Board[beamWidth];
+            rootPiece = new Piece[beamWidth];
+            nextRootPiece = new Piece[beamWidth];
+            rootX = new int[beamWidth];
+            nextRootX = new int[beamWidth];
+            rootY = new int[beamWidth];
+            nextRootY = new int[beamWidth];
+            childScore = new double[beamWidth];
+            childParent = new int[beamWidth];
+            childX = new int[beamWidth];
+            childY = new int[beamWidth];
+            childPiece = new Piece[beamWidth];
+        }
+        for (int i=0; i<beamWidth; i++) {
+            if (beam[i] == null) beam[i] = new Board(board.getWidth(), board.getHeight());
+            if (nextBeam[i] == null) nextBeam[i] = new Board(board.getWidth(), board.getHeight());
+        }
+    }
+
+    /*
+     Rates every play of the piece on the parent board, offering each
+     to the children of this ply.
+    */
+    private void expand(Board parent, int parentIndex, Piece piece, int limitHeight) {
+        Piece current = piece;
+        while (true) {
+            final int yBound = limitHeight - current.getHeight()+1;
+            final int xBound = parent.getWidth() - current.getWidth()+1;
+
+            for (int x = 0; x<xBound; x++) {
+                if ((cancelled == generation && (childCount > 0 || completedDepth > 0))    // have a play to return
+                    || (timed && System.nanoTime() - deadline >= 0)) {
+                    stopped = true;
+                    return;
+                }
+                int y = parent.dropHeight(current, x);
+                if (y<yBound) {    // piece does not stick up too far
+                    int result = parent.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) parent.clearRows();
+                        nodes++;
+                        offer(evaluator.scoreBoard(parent), parentIndex, current, x, y);
+                    }
+                    parent.undo();
+                }
+            }
+
+            current = current.fastRotation();
+            if (current == piece) break;
+        }
+    }
+
+    /*
+     Inserts a child into the sorted best-children list if it is good
+     enough. Equal scores keep the earlier child first, like DefaultBrain.
+    */
+    private void offer(double score, int parent, Piece piece, int x, int y) {
+        if (childCount == beamWidth && !(score < childScore[childCount-1])) return;
+        int i = (childCount < beamWidth) ? childCount++ : childCount-1;
+        while (i > 0 && score < childScore[i-1]) {
+            childScore[i] = childScore[i-1];
+            childParent[i] = childParent[i-1];
+            childPiece[i] = childPiece[i-1];
+            childX[i] = childX[i-1];
+            childY[i] = childY[i-1];
+            i--;
+        }
+        childScore[i] = score;
+        childParent[i] = parent;
+        childPiece[i] = piece;
+        childX[i] = x;
+        childY[i] = y;
+    }
+
+    /*
+     Copies the kept children out into boards of their own and makes them
+     the beam. At ply 0 the parent is the caller's board and each child is
+     its own root play; later, children inherit their parent's root play.
+    */
+    private void keep(Board root, boolean first) {
+        for (int i=0; i<childCount; i++) {
+            int parent = childParent[i];
+            Board board = nextBeam[i];
+            board.copyFrom(first ? root : beam[parent]);
+            if (board.place(childPiece[i], childX[i], childY[i]) == Board.PLACE_ROW_FILLED) board.clearRows();
+            board.commit();
+            nextRootPiece[i] = first ? childPiece[i] : rootPiece[parent];
+            nextRootX[i] = first ? childX[i] : rootX[parent];
+            nextRootY[i] = first ? childY[i] : rootY[parent];
+        }
+        Board[] boards = beam; beam = nextBeam; nextBeam = boards;
+        Piece[] pieces = rootPiece; rootPiece = nextRootPiece; nextRootPiece = pieces;
+        int[] xs = rootX; rootX = nextRootX; nextRootX = xs;
+        int[] ys = rootY; rootY = nextRootY; nextRootY = ys;
+        beamSize = childCount;
+        beamScore = childScore[0];
+    }
+
+    /**
+     Returns the number of boards rated since the counters were last reset.
+    */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     Returns the number of boards rated per second of bestMove() time
+     since the counters were last reset.
+    */
+    public double getNodesPerSecond() {
+        return (nanos == 0) ? 0 : nodes * 1e9 / nanos;
+    }
+
+    public void resetCounters() {
+        nodes = 0;
+        nanos = 0;
+    }
+
+    /**
+     Plays the same piece sequences with DefaultBrain and with a beam
+     search, and prints how many pieces each survived on average.
+     Usage: java BeamBrain [beam width] [depth] [games] [piece limit]
+    */
+    public static void main(String[] args) {
+        int beamWidth = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int depth = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+        int games = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        int limit = (args.length > 3) ? Integer.parseInt(args[3]) : 5000;
+
+        BeamBrain beam = new BeamBrain(beamWidth, depth);
+        long greedyTotal = 0, beamTotal = 0;
+        for (int game=0; game<games; game++) {
+            greedyTotal += play(new DefaultBrain(), game, depth, limit);
+            beamTotal += play(beam, game, depth, limit);
+        }
+        System.out.println("DefaultBrain: " + (greedyTotal / games) + " pieces per game");
+        System.out.println("BeamBrain width " + beamWidth + " depth " + depth + ": " + (beamTotal / games)
+            + " pieces per game, " + (long)beam.getNodesPerSecond() + " nodes/sec");
+    }
+
+    /*
+     Plays one standard game with the brain seeing "depth-1" pieces ahead,
+     and returns the number of pieces played before it topped out.
+    */
+    private static int play(Brain brain, long seed, int depth, int limit) {
+        java.util.Random random = new java.util.Random(seed);
+        Piece[] pieces = Piece.getPieces();
+        Piece[] queue = new Piece[depth];
+        for (int i=0; i<depth; i++) queue[i] = pieces[random.nextInt(pieces.length)];
+        Board board = new Board(JTetris.WIDTH, JTetris.HEIGHT + JTetris.TOP_SPACE);
+        Piece[] preview = new Piece[depth-1];
+        int count;
+        for (count=0; count<limit; count++) {
+            System.arraycopy(queue, 1, preview, 0, depth-1);
+            Brain.Move move = (brain instanceof BeamBrain)
+                ? ((BeamBrain)brain).bestMove(board, queue[0], preview, JTetris.HEIGHT, null)
+                : brain.bestMove(board, queue[0], JTetris.HEIGHT, null);
+            if (move == null) break;
+            board.place(move.piece, move.x, move.y);
+            board.clearRows();
+            board.commit();
+            if (board.getMaxHeight() > JTetris.HEIGHT) break;
+            System.arraycopy(queue, 1, queue, 0, depth-1);
+            queue[depth-1] = pieces[random.nextInt(pieces.length)];
+        }
+        return count;
+    }
+}
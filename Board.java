@@ -3,7 +3,13 @@
 /**
  CS108 Tetris Board.
  Represents a Tetris board -- essentially a 2-d grid
- of booleans. Supports tetris pieces and row clearing.
+ of booleans, stored as a bitmask per row so that collision
+ checks and full-row detection are word operations. A row spans
+ as many longs as the width needs, so boards wider than 64 columns
+ cost one extra word op per 64 columns rather than one op per block.
+ The rows live in a pool of slots reached through a row-to-slot table,
+ so clearing or inserting rows moves table entries rather than row data.
+ Supports tetris pieces and row clearing.
  Has an "undo" feature that allows clients to add and remove pieces efficiently.
  Does not do any drawing or have any idea of pixels. Instead,
  just represents the abstract 2-d board.
@@ -12,16 +18,50 @@ public class Board	{
 	// Some ivars are stubbed out for you:
 	private int width;
 	private int height;
-	private int widths[];
-	private int BKwidths[];
+	private int words;			// number of longs per row
+	private long[] rows;		// "words" longs per slot: bit x of row y is bit (x&63) of rows[slot[y]*words + (x>>>6)]
+	private int[] slot;			// row y of the board is stored in slot slot[y] -- always a permutation of 0..height-1
+	private int[] freed;		// scratch space used by clearRows() to collect the slots of deleted rows
+	private long[] fullSlots;	// bitset of the slots that hold a full row
+	private int fullCount;		// number of bits set in fullSlots
 	private int heights[];
-	private int BKheights[];
-	private boolean[][] grid;
-	private boolean[][] backup;
-	private boolean DEBUG = true;
+	private long[] fullRow;		// "words" longs with the low "width" bits set -- what a completely filled row looks like
+	private long lastMask;		// the bits of the last word of a row that are on the board
+	private long[] scratchRow;	// "words" longs of scratch space for addGarbage() and recalcHeights()
 	boolean committed;
 	private int maxHeight;
-	private int BKmaxHeight;
+	private long hash;			// Zobrist-style hash: XOR of rowKey(row, y) over every row
+	
+	// Board features kept up to date as blocks come and go, so evaluators
+	// don't have to scan the grid
+	private int[] counts;		// number of filled blocks in each column
+	private int blocks;			// number of filled blocks in the whole board
+	private int sumHeight;		// sum of the column heights
+	private int bumpiness;		// sum of |height difference| between neighboring columns
+	private int wells;			// sum of getWellDepth() over all columns
+	
+	// Undo journal -- instead of backing up the whole board, every change made since
+	// the last commit() is logged as (what changed, old value) so undo() only touches
+	// what was actually changed.
+	private int[] jWhere;		// entry kind in the high bits, row/column index in the low bits
+	private long[] jOld;		// the value that was overwritten (unused for J_CLEAR)
+	private int jTop;			// number of entries in the journal
+	private int undoMark;		// journal size at the last commit() or checkpoint() -- undo() rewinds to here
+	private int[] marks;		// journal size at each open checkpoint(), innermost last
+	private int depth;			// number of open checkpoints
+	
+	private static final int J_KIND = 0xF0000000;
+	private static final int J_INDEX = 0x0FFFFFFF;
+	private static final int J_ROW = 0x00000000;			// word "index" of the rows (y*words + word) was overwritten
+	private static final int J_HEIGHT = 0x10000000;		// heights[index] was overwritten
+	private static final int J_MAX_HEIGHT = 0x20000000;	// maxHeight was overwritten
+	private static final int J_CLEAR = 0x30000000;		// full row "index" was deleted by clearRows()
+	private static final int J_HASH = 0x40000000;			// hash was overwritten
+	private static final int J_FEATURE = 0x50000000;		// sumHeight (0), bumpiness (1) or wells (2) was overwritten
+	private static final int J_GARBAGE = 0x60000000;		// "index" rows were inserted at the bottom by addGarbage()
+	
+	/** The widest piece place() accepts -- each row of a piece is a single long, see Piece.getRowMasks(). */
+	public static final int MAX_PIECE_WIDTH = 64;
 	
 	// Here a few trivial methods are provided:
 	
@@ -30,24 +70,42 @@ public class Board	{
 	 measured in blocks.
 	*/
 	public Board(int width, int height) {
+		allocate(width, height);
+		this.maxHeight =0;
+		this.hash = 0;				//the empty board hashes to zero
+		for(int y=0;y<height;y++){
+			slot[y] = y;				//start out with row y in slot y
+		}
+		fullCount = 0;
+		jWhere = new int[64];		//grows on demand, but a place plus a clearRows rarely needs more than this
+		jOld = new long[64];
+		jTop = 0;
+		undoMark = 0;
+		marks = new int[16];
+		depth = 0;
+		committed = true;
+	}
+	
+	/**
+	 Sizes the board arrays for the given width and height -- all rows empty.
+	*/
+	private void allocate(int width, int height) {
+		if (width<1 || height<0) throw new RuntimeException("Bad board size "+width+" x "+height);
+		words = (width+63)>>>6;
+		if ((long)height*words > J_INDEX) throw new RuntimeException("Board "+width+" x "+height+" is too big to journal");
 		this.width = width;
 		this.height = height;
-		this.maxHeight =0;
-		BKmaxHeight = 0;
 		heights = new int[width];	//height of each col, so array size = #cols
-		BKheights= new int[width];
-		widths = new int[height];   //width of each row,  so array size = #rows
-		BKwidths = new int[height];
-		grid = new boolean[width][height];
-		backup = new boolean[width][height];
-		committed = true;
-		for(int x=0;x<this.width;x++){				//init grid to all false and heights/widths to all zero
-			for(int y=0;y<this.height;y++){
-				grid[x][y] = false;
-				backup[x][y] = false;
-			}
-		}
-		
+		counts = new int[width];
+		rows = new long[height*words];	//all rows start out empty (all bits zero)
+		slot = new int[height];
+		freed = new int[height];
+		fullSlots = new long[(height+63)/64];
+		scratchRow = new long[words];
+		lastMask = ((width&63)==0) ? -1L : (1L<<width)-1;	//the shift only uses the low 6 bits of width
+		fullRow = new long[words];
+		java.util.Arrays.fill(fullRow, -1L);
+		fullRow[words-1] = lastMask;
 	}
 	
 	
@@ -101,24 +159,58 @@ public class Board	{
 	
 	/**
 	 Checks the board for internal consistency -- used
-	 for debugging.
+	 for debugging. Recomputes everything the board keeps
+	 incrementally and throws a RuntimeException describing the
+	 first mismatch. O(width x height), so the board's own operations
+	 never call it; use VerifyingBoard to have it run after every operation.
 	*/
 	public void sanityCheck() {
-		if (DEBUG) {
-			//compute all heights and check against the heights array
-			for(int col=0;col<this.width;col++){
-				if(calcColumnHeight(col)!=heights[col]){
-					throw new RuntimeException("Column Height "+col+" is inconsistent with heights array. Heights array says " + heights[col] + " and calculated value is " + this.calcColumnHeight(col));
-				}			
+		//compute all heights and check against the heights array
+		for(int col=0;col<this.width;col++){
+			if(calcColumnHeight(col)!=heights[col]){
+				throw new RuntimeException("Column Height "+col+" is inconsistent with heights array. Heights array says " + heights[col] + " and calculated value is " + this.calcColumnHeight(col));
+			}			
+		}
+		int calcFull=0;
+		boolean[] used = new boolean[height];
+		for(int row=0;row<this.height;row++){
+			if((rows[row*words+words-1] & ~lastMask)!=0){
+				throw new RuntimeException("Slot " +row+" has blocks set beyond the board width");
+			}
+			if(isFullRow(row) != isFullSlot(row)){
+				throw new RuntimeException("Slot " +row+" is inconsistent with the full slots bitset");
 			}
+			if(isFullRow(row)) calcFull++;
+			if(used[slot[row]]){
+				throw new RuntimeException("Slot " +slot[row]+" is used by more than one row");
+			}
+			used[slot[row]] = true;
+		}
+		if(calcFull!=fullCount){
+			throw new RuntimeException("Full row count "+fullCount+" is inconsistent with calculated value "+calcFull);
+		}
+		if(this.calcMaxHeight() != this.getMaxHeight()){
+			throw new RuntimeException("Calculated Max Height is inconsistent with max height ivar");
+		}
+		if(this.calcHash() != this.getHash()){
+			throw new RuntimeException("Calculated hash is inconsistent with hash ivar");
+		}
+		int calcBlocks=0, calcSum=0, calcBumps=0, calcWells=0;
+		for(int col=0;col<this.width;col++){
+			int count=0;
 			for(int row=0;row<this.height;row++){
-				if(calcRowWidth(row)!=widths[row]){
-					throw new RuntimeException("Row width " +row+" is inconsistent with width array. Widths array says " + widths[row] + " and calculated value is " + this.calcRowWidth(row));
-				}			
+				if(getGrid(col, row)) count++;
 			}
-			if(this.calcMaxHeight() != this.getMaxHeight()){
-				throw new RuntimeException("Calculated Max Height is inconsistent with max height ivar");
+			if(count!=counts[col]){
+				throw new RuntimeException("Column "+col+" block count is inconsistent with counts array. Counts array says " + counts[col] + " and calculated value is " + count);
 			}
+			calcBlocks += count;
+			calcSum += heights[col];
+			if(col>0) calcBumps += Math.abs(heights[col]-heights[col-1]);
+			calcWells += getWellDepth(col);
+		}
+		if(calcBlocks!=blocks || calcSum!=sumHeight || calcBumps!=bumpiness || calcWells!=wells){
+			throw new RuntimeException("Board features are inconsistent: blocks "+blocks+"/"+calcBlocks+" sumHeight "+sumHeight+"/"+calcSum+" bumpiness "+bumpiness+"/"+calcBumps+" wells "+wells+"/"+calcWells);
 		}
 	}
 	
@@ -136,7 +228,7 @@ public class Board	{
 		int [] skirtArray = piece.getSkirt();
 		int skirtwidth = skirtArray.length;
 		for(int col =x;col<(x+skirtwidth);col++){			//parse through each column that the piece is occupying
-			int localMax = getColumnHeight(col)-piece.getSkirt()[col-x];  //based on this column of the piece only, the origin of the landing point would be at index y = grid column height - skirt value    
+			int localMax = heights[col]-skirtArray[col-x];  //based on this column of the piece only, the origin of the landing point would be at index y = grid column height - skirt value    
 			if(localMax > maxLanding){
 				maxLanding = localMax;		//update the maxLanding variable if the landing y-index for this column was greater than the running tally thus far
 			}
@@ -157,35 +249,27 @@ public class Board	{
 	 Calculates the height of the given column 	
 	*/
 	private int calcColumnHeight(int x) {
-		int maxYindex=-1;
-		for(int yIndex=0;yIndex<this.height;yIndex++){
-			if(this.grid[x][yIndex]){
-				maxYindex=yIndex;
+		long bit = 1L<<x;
+		int w = x>>>6;
+		for(int yIndex=this.height-1;yIndex>=0;yIndex--){		//walk down from the top until we hit a block in this column
+			if((rows[slot[yIndex]*words+w] & bit)!=0){
+				return yIndex+1;
 			}		
 		}
-		return maxYindex+1; // returns the y-index above the topmost block in this column
+		return 0; // returns the y-index above the topmost block in this column
 	}
 	
 	/**
 	 Returns the number of filled blocks in
-	 the given row from a precomputed ivar.
+	 the given row -- just the bit count of the row mask.
 	*/
 	public int getRowWidth(int y) {
-		return widths[y];
-	}
-	
-	/**
-	 calculates the number of filled blocks in
-	 the given row.
-	*/
-	private int calcRowWidth(int y) {
-		int totalRowBlocks=0;
-		for(int xIndex=0;xIndex<this.width;xIndex++){
-			if(this.grid[xIndex][y]){
-				totalRowBlocks++;
-			}
+		int base = slot[y]*words;
+		int count = 0;
+		for(int w=0;w<words;w++){
+			count += Long.bitCount(rows[base+w]);
 		}
-		 return totalRowBlocks; 
+		return count;
 	}
 	
 	/**
@@ -197,7 +281,7 @@ public class Board	{
 		if((x<0)||(x>=this.width)||(y<0) || (y>=this.height)){			//for locations out of bounds, pretend it's a filled block to maintain generality
 			return true;
 		}
-		return grid[x][y]; 				//otherwise, return the actual grid value
+		return (rows[slot[y]*words+(x>>>6)] & (1L<<x))!=0; 				//otherwise, test the block's bit in its row (the shift only uses the low 6 bits of x)
 	}
 	
 	
@@ -219,12 +303,12 @@ public class Board	{
 	 in which case PLACE_BAD is returned.
 	 In both error cases, the board may be left in an invalid
 	 state. The client can use undo(), to recover the valid, pre-place state.
+	 Pieces wider than MAX_PIECE_WIDTH are rejected with a RuntimeException.
 	*/
 	public int place(Piece piece, int x, int y) {
 		// flag !committed problem
 		if (!committed) throw new RuntimeException("place commit problem at "+x+" , "+y);   //can only do PLACE if we are committed
-		this.backup();													//going into uncommitted state; first back up the grid
-		this.committed = false;					//now change the committed state because we are placing
+		this.committed = false;					//now change the committed state because we are placing -- changes from here on are journaled
 		
 		int result = PLACE_OK;
 		
@@ -232,88 +316,217 @@ public class Board	{
 			return PLACE_OUT_BOUNDS;
 		}
 		
-									//remember that locations off the board are reported as filled by the getGrid method, so that will handle cases where piece goes off the grid
-									//now start parsing through body of piece to see if there are collisions. 
-		TPoint[] body = piece.getBody();
-		for(int i=0;i<body.length;i++){			//examine each TPoint
-			if(getGrid((body[i].x+x),(body[i].y+y))){			//if block already exists at one of the TPoints (shifted considering the placement of piece origin)...collision...
-				return PLACE_BAD;
-			}
-			else{
-				this.grid[body[i].x+x][body[i].y+y] = true;				//otherwise...can fill in the block
+		if(piece.getWidth()>MAX_PIECE_WIDTH) throw new RuntimeException("Piece is wider than "+MAX_PIECE_WIDTH);
+		
+		int pieceHeight = piece.getHeight();
+		long[] pieceRows = piece.getRowMasks();			//one mask per row of the piece, relative to x
+		if(overlaps(pieceRows, pieceHeight, x, y)){		//nothing is written unless the whole piece fits
+			return PLACE_BAD;
+		}
+		// the piece is at most 64 wide, so each of its rows covers word w and maybe word w+1
+		int w = x>>>6;
+		int shift = x&63;
+		long newHash = hash;
+		for(int row=0;row<pieceHeight;row++){			//stamp the piece in and note any row that became full
+			int s = slot[y+row];
+			long lo = pieceRows[row]<<shift;
+			long hi = (shift==0) ? 0 : pieceRows[row]>>>(64-shift);
+			newHash ^= rowKey(rows, s*words, y+row);
+			setWord(y+row, w, rows[s*words+w] | lo);
+			if(hi!=0) setWord(y+row, w+1, rows[s*words+w+1] | hi);
+			newHash ^= rowKey(rows, s*words, y+row);
+			boolean full = isFullRow(s);
+			setFullSlot(s, full);
+			if(full){
+				result = PLACE_ROW_FILLED;
 			}
-		}														//at this point...found no collision for entire piece placement
-		if((y+piece.getHeight()) > this.maxHeight){					//valid placement, so safe to update maxHeight if we have a new maxHeight
-			this.maxHeight=(y+piece.getHeight());	
-		}
-		for(int i =0; i<piece.getBody().length;i++){           //update heights and widths arrays by parsing through the piece body 
-			int columnNum =piece.getBody()[i].x+x;        		 //literal column and row location of the Tpoint in the body
-			int rowNum = piece.getBody()[i].y+y;
-			if(heights[columnNum]< rowNum+1){     		//update heights and widths arrays to account for this body point
-				heights[columnNum]=rowNum+1;           //remember that the "height" is the row index ABOVE the highest occupied block
+		}
+		setHash(newHash);
+		if((y+pieceHeight) > this.maxHeight){					//valid placement, so safe to update maxHeight if we have a new maxHeight
+			setMaxHeight(y+pieceHeight);	
+		}
+		recordFeatures();
+		blocks += piece.getSize();
+		int[] tops = piece.getColumnTops();
+		int[] columnCounts = piece.getColumnCounts();
+		for(int col=0;col<tops.length;col++){			//update heights and counts arrays one piece column at a time
+			int columnNum = col+x;
+			counts[columnNum] += columnCounts[col];		//not journaled -- undo re-derives it from the row change
+			if(columnCounts[col]>0 && heights[columnNum]< y+tops[col]){
+				setHeight(columnNum, y+tops[col]);		//remember that the "height" is the row index ABOVE the highest occupied block
 			}
-			widths[rowNum] = widths[rowNum]+1;			
 		}
-		for(int row = y;row<(y+piece.getHeight());row++){		//check if any rows that the piece occupies has been completed
-			if(this.getRowWidth(row)==this.width){
-				return PLACE_ROW_FILLED;
-			}				
-		}			
 		
-		sanityCheck();	
-		return result;												//if no rows completed but entire piece was placed Ok, return PLACE_OK
+		return result;												//PLACE_ROW_FILLED if some row completed, otherwise PLACE_OK
 	}
 	
 	
 	/**
-	 Helper method that copies contents of source row to destination row
+	 Returns true if the piece could be placed at (x,y): it is inside the
+	 board and does not overlap any filled block. Changes nothing, so it
+	 needs no undo() and works in either the committed or uncommitted state.
+	 Costs one or two word ops per row of the piece -- used by move
+	 generators to test many piece positions quickly.
 	*/
-	private void rowCopy(int destRow, int sourceRow) {
-		int gridWidth = this.width;
-		for (int x=0;x<gridWidth;x++){
-			this.grid[x][destRow]= this.grid[x][sourceRow];	
-		}		
-		this.widths[destRow]=this.widths[sourceRow];
+	public boolean canPlace(Piece piece, int x, int y) {
+		if((x<0)||(x>(this.width-piece.getWidth())) || (y<0) || (y>(this.height-piece.getHeight()))) return false;
+		long[] pieceRows = piece.getRowMasks();
+		return pieceRows!=null && !overlaps(pieceRows, piece.getHeight(), x, y);
+	}
+	
+	/**
+	 Collision check for an in-bounds piece: one or two ANDs per row, since
+	 a piece is at most 64 wide and so covers word x>>>6 and maybe the next.
+	*/
+	private boolean overlaps(long[] pieceRows, int pieceHeight, int x, int y) {
+		int w = x>>>6;
+		int shift = x&63;
+		for(int row=0;row<pieceHeight;row++){
+			int base = slot[y+row]*words+w;
+			long lo = pieceRows[row]<<shift;
+			long hi = (shift==0) ? 0 : pieceRows[row]>>>(64-shift);
+			if((rows[base] & lo)!=0 || (hi!=0 && (rows[base+1] & hi)!=0)){
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	
 	/**
 	 Deletes rows that are filled all the way across, moving
 	 things above down. Returns the number of rows cleared.
+	 Only the row-to-slot table moves; the deleted rows' slots are
+	 blanked and recycled at the top, so no row data is copied.
 	*/
 	public int clearRows() {
-		if(committed){						//check if we're coming from a committed state
-			this.backup();					//if so, back up the current grid before we do anything
-			this.committed=false;			//doing a clearRows makes committed = false
+		this.committed=false;			//doing a clearRows makes committed = false
+		if(fullCount==0){
+			return 0;					//the full slots bitset tells us there is nothing to do
 		}
 		int rowsCleared = 0;
-		for(int y=0;y<=this.maxHeight;y++){		//parse over original set of rows up to max height
-			if(y!=this.height){					//check for special case - make sure the row we are checking is not out of bounds of the board (since maxheight could be one above the top of the board) 
-				if(this.getRowWidth(y) == this.width){
-					rowsCleared++;    //for filled rows, increment the rows cleared count, and move on till you hit an unfilled row 
-				}
-				else{
-					rowCopy(y-rowsCleared,y);   //move unfilled rows down (via copy) by the number of filled rows encountered thus far
-				}	
+		int oldmaxHeight = this.maxHeight;
+		long newHash = hash;
+		for(int y=0;y<oldmaxHeight;y++){		//parse over rows up to max height -- everything above is empty
+			int s = slot[y];
+			if(isFullSlot(s)){
+				record(J_CLEAR|(y-rowsCleared), 0);		//journal where the row sits once the rows below it are gone, so undo can re-insert top first
+				newHash ^= rowKey(fullRow, 0, y);
+				freed[rowsCleared++] = s;    //for filled rows, increment the rows cleared count, and move on till you hit an unfilled row 
+			}
+			else if(rowsCleared>0){
+				newHash ^= rowKey(rows, s*words, y) ^ rowKey(rows, s*words, y-rowsCleared);		//the row's hash key changes as it moves down
+				slot[y-rowsCleared]=s;   //move unfilled rows down by the number of filled rows encountered thus far -- only the slot number moves
 			}
-			
 		}
-		int oldmaxHeight = this.maxHeight;
-		this.maxHeight = this.maxHeight-rowsCleared;		//update the maxHeight to account for rows deleted
-		for(int y=this.maxHeight;y<oldmaxHeight;y++){		//directly fill the rest of the grid past the new MaxHeight row up to the former maxHeight (we know there is nothing but FALSE above that) with FALSE rows
-			for(int x=0;x<this.width;x++){
-				grid[x][y] = false;			
-			}	
-			widths[y]=0;									//update the widths array for all these blank rows
-		}	
-		for(int i=0;i<heights.length;i++){
-			heights[i]=this.calcColumnHeight(i);
+		setHash(newHash);
+		for(int i=0;i<rowsCleared;i++){		//the deleted rows' slots become the blank rows between the new and old maxHeight
+			int s = freed[i];
+			java.util.Arrays.fill(rows, s*words, (s+1)*words, 0L);
+			setFullSlot(s, false);
+			slot[oldmaxHeight-rowsCleared+i]=s;
+		}
+		for(int x=0;x<width;x++){			//every deleted row was full, so each column lost exactly rowsCleared blocks
+			counts[x] -= rowsCleared;
 		}
-		sanityCheck();	
+		blocks -= rowsCleared*width;
+		recordFeatures();
+		recalcHeights();
+		setMaxHeight(calcMaxHeight());		//a cleared top row can leave empty rows below it, so take the max from the new heights
 		return rowsCleared;
 	}
+	
+	
+	/**
+	 Pushes the whole stack up by "lines" rows and fills the new bottom rows
+	 with garbage: full rows except for a hole at column holeX.
+	 Like place(), the board must be committed beforehand and is uncommitted
+	 afterwards, so undo() removes the garbage again.
+	 Returns PLACE_OK, or PLACE_ROW_FILLED if holeX is off the board (so the
+	 garbage rows are full), or PLACE_OUT_BOUNDS if the stack would be pushed
+	 off the top of the board -- in which case the board is not changed.
+	 Only the row-to-slot table moves, so apart from writing the new rows
+	 the cost does not depend on the amount of data in the rows.
+	*/
+	public int addGarbage(int lines, int holeX) {
+		if (!committed) throw new RuntimeException("addGarbage commit problem");
+		this.committed = false;
+		if(lines<0 || maxHeight+lines>height){
+			return PLACE_OUT_BOUNDS;
+		}
+		if(lines==0){
+			return PLACE_OK;
+		}
+		long[] garbage = scratchRow;
+		System.arraycopy(fullRow, 0, garbage, 0, words);
+		boolean full = true;
+		if(holeX>=0 && holeX<width){
+			garbage[holeX>>>6] &= ~(1L<<holeX);
+			full = false;
+		}
+		record(J_GARBAGE|lines, 0);
+		long newHash = 0;
+		for(int y=maxHeight-1;y>=0;y--){			//move every row up, rehashing it at its new position
+			newHash ^= rowKey(rows, slot[y]*words, y+lines);
+		}
+		for(int y=0;y<lines;y++){
+			freed[y] = slot[height-lines+y];		//the top slots are empty (checked above), so reuse them for the garbage
+			newHash ^= rowKey(garbage, 0, y);
+		}
+		System.arraycopy(slot, 0, slot, lines, height-lines);
+		for(int y=0;y<lines;y++){
+			int s = freed[y];
+			slot[y] = s;
+			System.arraycopy(garbage, 0, rows, s*words, words);
+			setFullSlot(s, full);
+		}
+		setHash(newHash);
+		for(int x=0;x<width;x++){
+			if(x!=holeX) counts[x] += lines;
+		}
+		blocks += full ? lines*width : lines*(width-1);
+		recordFeatures();
+		for(int x=0;x<width;x++){
+			if(x!=holeX || heights[x]>0) setHeight(x, heights[x]+lines);
+		}
+		setMaxHeight(calcMaxHeight());
+		return full ? PLACE_ROW_FILLED : PLACE_OK;
+	}
 
-
+	
+	/**
+	 Recomputes every column height after rows have moved.
+	 Walks down from maxHeight OR-ing rows together, so each row
+	 costs one op per word and the walk stops once every column has been seen.
+	 Only columns whose height actually changed are journaled.
+	*/
+	private void recalcHeights() {
+		long[] seen = scratchRow;
+		java.util.Arrays.fill(seen, 0L);
+		int unseen = width;
+		for(int y=this.maxHeight-1;(y>=0)&&(unseen>0);y--){
+			int base = slot[y]*words;
+			for(int w=0;w<words;w++){
+				long fresh = rows[base+w] & ~seen[w];		//columns whose top block is in this row
+				if(fresh==0) continue;
+				seen[w] |= fresh;
+				unseen -= Long.bitCount(fresh);
+				while(fresh!=0){
+					int x = (w<<6) + Long.numberOfTrailingZeros(fresh);
+					if(heights[x]!=y+1) setHeight(x, y+1);
+					fresh &= fresh-1;
+				}
+			}
+		}
+		for(int w=0;w<words;w++){
+			long empty = fullRow[w] & ~seen[w];			//columns with no blocks left at all
+			while(empty!=0){
+				int x = (w<<6) + Long.numberOfTrailingZeros(empty);
+				if(heights[x]!=0) setHeight(x, 0);
+				empty &= empty-1;
+			}
+		}
+	}
 	
 	
 
@@ -323,22 +536,13 @@ public class Board	{
 	 If the conditions for undo() are not met, such as
 	 calling undo() twice in a row, then the second undo() does nothing.
 	 See the overview docs.
+	 Cost is proportional to the number of changes being reverted, not to the board size.
 	*/
 	public void undo() {
-		if(!committed){					//do a swap to restore grid to the backup.  
-			boolean[][] temp = grid;
-			grid=backup;
-			backup=temp;		//why keep the ruined grid?  You can't have grid and backup pointing to the same thing, and you don't want to create a new backup, so just point to an existing structure for the time being.  It doesn't matter that it is containing bad data, as it will get overwritten on the next place or clearRows	
-			int[] tempHeights = heights;
-			int[] tempWidths = widths;
-			heights= BKheights;
-			BKheights = tempHeights;
-			widths = BKwidths;
-			BKwidths = tempWidths;
-			maxHeight = BKmaxHeight;
+		if(!committed){					//play the journal back in reverse to restore the pre-place state
+			rewind(undoMark);
 		}
 		this.committed =true;	
-		sanityCheck();	
 	}
 	
 	
@@ -347,21 +551,428 @@ public class Board	{
 	*/
 	public void commit() {
 		committed = true;
+		if(depth==0){
+			jTop = 0;				//the changes are kept, so their undo information can be dropped
+		}							//otherwise an enclosing checkpoint may still need to roll them back
+		undoMark = jTop;
 	}
-
+	
+	
 	/**
-	 Backups up the entire main grid to the backup grid
+	 Saves the current board state so that a later rollback() can return to it,
+	 and puts the board in the committed state so another place() may follow.
+	 Checkpoints nest: a search can checkpoint, place, clearRows, checkpoint again
+	 and so on many levels deep on a single board, then rollback() level by level.
+	 Within a level the usual place/clearRows/undo/commit rules apply, with the
+	 checkpoint acting as the commit point that undo() returns to.
+	 Returns the new checkpoint depth.
+	 Does not allocate once the journal and checkpoint stack have grown to the
+	 depth being searched.
 	*/
-	private void backup() {
-		for(int x=0;x<this.width;x++){
-			System.arraycopy(this.grid[x], 0, this.backup[x], 0, this.grid[0].length);
+	public int checkpoint() {
+		if(depth==marks.length){
+			marks = java.util.Arrays.copyOf(marks, depth*2);
 		}
-		BKmaxHeight = maxHeight;
-		System.arraycopy(heights,0,BKheights,0,heights.length);
-		System.arraycopy(widths,0,BKwidths,0,widths.length);
+		marks[depth++] = jTop;
+		committed = true;
+		undoMark = jTop;
+		return depth;
+	}
+	
+	
+	/**
+	 Reverts the board to the state it was in at the matching checkpoint(),
+	 discarding everything placed, cleared or committed since, and removes
+	 that checkpoint. The board is left in the committed state.
+	 It is an error to call this without an open checkpoint.
+	*/
+	public void rollback() {
+		if(depth==0) throw new RuntimeException("rollback without a matching checkpoint");
+		rewind(marks[--depth]);
+		committed = true;
+		undoMark = jTop;
+	}
+	
+	
+	/**
+	 Returns the number of checkpoints that have not been rolled back yet.
+	*/
+	public int getCheckpointDepth() {
+		return depth;
+	}
+	
+	
+	/**
+	 Makes this board a copy of the source board's current blocks and
+	 bookkeeping, reusing this board's arrays -- so a search worker can
+	 fork a position without producing garbage. Arrays are only
+	 reallocated if the two boards are different sizes.
+	 The copy starts out committed, with no undo history and no open
+	 checkpoints, whatever state the source is in.
+	*/
+	public void copyFrom(Board source) {
+		if(source==this) return;
+		if(source.width!=width || source.height!=height){
+			allocate(source.width, source.height);
+		}
+		System.arraycopy(source.rows, 0, rows, 0, rows.length);
+		System.arraycopy(source.slot, 0, slot, 0, height);
+		System.arraycopy(source.fullSlots, 0, fullSlots, 0, fullSlots.length);
+		System.arraycopy(source.heights, 0, heights, 0, width);
+		System.arraycopy(source.counts, 0, counts, 0, width);
+		fullCount = source.fullCount;
+		maxHeight = source.maxHeight;
+		hash = source.hash;
+		blocks = source.blocks;
+		sumHeight = source.sumHeight;
+		bumpiness = source.bumpiness;
+		wells = source.wells;
+		jTop = 0;
+		undoMark = 0;
+		depth = 0;
+		committed = true;
+	}
 
+	
+	/**
+	 Appends one entry to the undo journal, growing it if needed.
+	*/
+	private void record(int where, long old) {
+		if(jTop==jWhere.length){
+			jWhere = java.util.Arrays.copyOf(jWhere, jTop*2);
+			jOld = java.util.Arrays.copyOf(jOld, jTop*2);
+		}
+		jWhere[jTop] = where;
+		jOld[jTop] = old;
+		jTop++;
+	}
+	
+	/*
+	 Journaled setters -- all changes to rows, heights and maxHeight
+	 outside of clearRows()/addGarbage() row moves go through these.
+	 Rows are journaled by board row y, not by slot, since a row may be
+	 in a different slot by the time it is restored.
+	 setWord() leaves the full slots bitset to the caller, which updates it
+	 once the whole row is written.
+	*/
+	private void setWord(int y, int w, long bits) {
+		int i = slot[y]*words+w;
+		record(J_ROW|(y*words+w), rows[i]);
+		rows[i] = bits;
+	}
+	
+	private void setHeight(int x, int h) {
+		record(J_HEIGHT|x, heights[x]);
+		int old = heights[x];
+		wells -= wellsAround(x);
+		if(x>0) bumpiness += Math.abs(h-heights[x-1]) - Math.abs(old-heights[x-1]);
+		if(x<width-1) bumpiness += Math.abs(h-heights[x+1]) - Math.abs(old-heights[x+1]);
+		sumHeight += h-old;
+		heights[x] = h;
+		wells += wellsAround(x);		//a height change only moves the wells of the column and its two neighbors
+	}
+	
+	/**
+	 Journals the aggregate features once per place()/clearRows(), so the
+	 individual setHeight() calls can update them without journaling each change.
+	*/
+	private void recordFeatures() {
+		record(J_FEATURE|0, sumHeight);
+		record(J_FEATURE|1, bumpiness);
+		record(J_FEATURE|2, wells);
+	}
+	
+	private void setMaxHeight(int h) {
+		record(J_MAX_HEIGHT, maxHeight);
+		maxHeight = h;
+	}
+	
+	private void setHash(long h) {
+		record(J_HASH, hash);
+		hash = h;
+	}
+	
+	
+	/**
+	 Pops journal entries, restoring each overwritten value, until only
+	 "mark" entries are left.
+	*/
+	private void rewind(int mark) {
+		while(jTop>mark){
+			jTop--;
+			int index = jWhere[jTop] & J_INDEX;
+			switch(jWhere[jTop] & J_KIND){
+				case J_ROW: restoreRow(index, jOld[jTop]); break;
+				case J_HEIGHT: heights[index] = (int)jOld[jTop]; break;
+				case J_MAX_HEIGHT: maxHeight = (int)jOld[jTop]; break;
+				case J_CLEAR: reinsertFullRow(index); break;
+				case J_GARBAGE: removeGarbage(index); break;
+				case J_HASH: hash = jOld[jTop]; break;
+				case J_FEATURE:
+					if(index==0) sumHeight = (int)jOld[jTop];
+					else if(index==1) bumpiness = (int)jOld[jTop];
+					else wells = (int)jOld[jTop];
+					break;
+			}
+		}
+	}
+	
+	
+	/**
+	 Undoes the deletion of one full row: shifts the rows from y up by one
+	 and puts a full row back at y. Only called from rewind(), after maxHeight
+	 has been restored to its pre-clear value, so nothing at or above
+	 maxHeight needs to move.
+	*/
+	private void reinsertFullRow(int y) {
+		int s = slot[maxHeight-1];		//clearRows() parked the deleted rows' slots at the top, last one highest
+		System.arraycopy(slot, y, slot, y+1, maxHeight-1-y);
+		slot[y] = s;
+		System.arraycopy(fullRow, 0, rows, s*words, words);
+		setFullSlot(s, true);
+		for(int x=0;x<width;x++){
+			counts[x]++;
+		}
+		blocks += width;
+	}
+	
+	/**
+	 Puts back an overwritten word of a row, adjusting the per-column block
+	 counts for whichever bits come and go.
+	*/
+	private void restoreRow(int index, long old) {
+		int y = index/words;
+		int w = index - y*words;
+		int s = slot[y];
+		int i = s*words+w;
+		long gone = rows[i] & ~old;
+		long back = old & ~rows[i];
+		blocks += Long.bitCount(back) - Long.bitCount(gone);
+		while(gone!=0){
+			counts[(w<<6) + Long.numberOfTrailingZeros(gone)]--;
+			gone &= gone-1;
+		}
+		while(back!=0){
+			counts[(w<<6) + Long.numberOfTrailingZeros(back)]++;
+			back &= back-1;
+		}
+		rows[i] = old;
+		setFullSlot(s, isFullRow(s));
+	}
+	
+	/**
+	 Undoes addGarbage(): drops the bottom "lines" rows and moves everything
+	 else down, parking the dropped slots (blanked) at the top.
+	 Only called from rewind(), after the hash, heights and features have
+	 been restored from their own journal entries.
+	*/
+	private void removeGarbage(int lines) {
+		for(int y=0;y<lines;y++){
+			int s = slot[y];
+			for(int w=0;w<words;w++){
+				long gone = rows[s*words+w];
+				blocks -= Long.bitCount(gone);
+				while(gone!=0){
+					counts[(w<<6) + Long.numberOfTrailingZeros(gone)]--;
+					gone &= gone-1;
+				}
+				rows[s*words+w] = 0;
+			}
+			setFullSlot(s, false);
+			freed[y] = s;
+		}
+		System.arraycopy(slot, lines, slot, 0, height-lines);
+		System.arraycopy(freed, 0, slot, height-lines, lines);
+	}
+	
+	
+	/*
+	 Full-row bookkeeping, by slot so that it never has to move when rows do.
+	*/
+	private boolean isFullRow(int s) {
+		int base = s*words;
+		for(int w=0;w<words-1;w++){
+			if(rows[base+w]!=-1L) return false;
+		}
+		return rows[base+words-1]==lastMask;
+	}
+	
+	private boolean isFullSlot(int s) {
+		return (fullSlots[s>>>6] & (1L<<s))!=0;
+	}
+	
+	private void setFullSlot(int s, boolean full) {
+		long bit = 1L<<s;
+		long word = fullSlots[s>>>6];
+		if(full && (word & bit)==0){
+			fullSlots[s>>>6] = word | bit;
+			fullCount++;
+		}
+		else if(!full && (word & bit)!=0){
+			fullSlots[s>>>6] = word & ~bit;
+			fullCount--;
+		}
+	}
+	
+	/**
+	 Returns the number of rows that are currently completely filled.
+	 clearRows() would delete exactly this many rows.
+	*/
+	public int getFullRowCount() {
+		return fullCount;
+	}
+	
+	
+	/**
+	 Returns the number of empty blocks in column x that are below
+	 the column's top block.
+	*/
+	public int getColumnHoles(int x) {
+		return heights[x]-counts[x];
+	}
+	
+	/**
+	 Returns the total number of holes -- empty blocks under the top
+	 block of their column -- in the board. O(1).
+	*/
+	public int getHoles() {
+		return sumHeight-blocks;
+	}
+	
+	/**
+	 Returns the number of filled blocks in the board.
+	*/
+	public int getBlockCount() {
+		return blocks;
+	}
+	
+	/**
+	 Returns the sum of all the column heights. O(1).
+	*/
+	public int getSumHeight() {
+		return sumHeight;
 	}
 	
+	/**
+	 Returns the sum of the absolute height differences between
+	 each pair of neighboring columns. O(1).
+	*/
+	public int getBumpiness() {
+		return bumpiness;
+	}
+	
+	/**
+	 Returns how far column x sits below the lower of its two neighbors,
+	 or 0 if it is not below both. The sides of the board count as
+	 neighbors as tall as the board.
+	*/
+	public int getWellDepth(int x) {
+		int left = (x==0) ? height : heights[x-1];
+		int right = (x==width-1) ? height : heights[x+1];
+		int depth = Math.min(left, right) - heights[x];
+		return (depth>0) ? depth : 0;
+	}
+	
+	/**
+	 Returns the sum of getWellDepth() over every column. O(1).
+	*/
+	public int getTotalWellDepth() {
+		return wells;
+	}
+	
+	// Sum of the well depths of column x and its neighbors
+	private int wellsAround(int x) {
+		int sum = getWellDepth(x);
+		if(x>0) sum += getWellDepth(x-1);
+		if(x<width-1) sum += getWellDepth(x+1);
+		return sum;
+	}
+	
+	/**
+	 Returns the 64-bit Zobrist-style hash of the blocks in the board: the XOR,
+	 over every non-empty row, of a key for that row's contents at that y.
+	 Kept up to date incrementally by place(), clearRows(), addGarbage(), undo()
+	 and rollback(), so identifying a position is O(1). Two boards with the same
+	 blocks have the same hash, whatever order the pieces were played in.
+	*/
+	public long getHash() {
+		return hash;
+	}
+	
+	
+	/**
+	 Returns a well-mixed 64-bit key for the pair (x,y) -- a splitmix64
+	 scramble of the pair rather than a random table entry, so the keys are
+	 the same for every board and cost no memory.
+	*/
+	public static long zobristKey(int x, int y) {
+		long z = ((((long)y)<<32) | (x & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+		z = (z ^ (z>>>30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z>>>27)) * 0x94D049BB133111EBL;
+		return z ^ (z>>>31);
+	}
+	
+	/**
+	 The hash key of the row held in row[base..base+words-1] at height y. Keyed
+	 per row rather than per block, so a row moving down in clearRows() costs
+	 two key computations however many blocks it holds -- one mixing step
+	 per word. Empty rows key to 0.
+	*/
+	private long rowKey(long[] row, int base, int y) {
+		long z = zobristKey(-1, y);
+		long any = 0;
+		for(int w=0;w<words;w++){
+			long bits = row[base+w];
+			any |= bits;
+			z = (z ^ bits) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z>>>31)) * 0x94D049BB133111EBL;
+			z ^= z>>>29;
+		}
+		return (any==0) ? 0 : z;
+	}
+	
+	/**
+	 Calculates the hash from scratch -- used by sanityCheck().
+	*/
+	private long calcHash() {
+		long h = 0;
+		for(int y=0;y<height;y++){
+			h ^= rowKey(rows, slot[y]*words, y);
+		}
+		return h;
+	}
+	
+	
+	/**
+	 Returns true if the other board has the same size and exactly the
+	 same blocks filled. The hashes are compared first, so unequal boards
+	 are almost always rejected in O(1); the rows are only compared to rule
+	 out a hash collision. The committed/undo state is not compared.
+	*/
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof Board)) return false;
+		
+		Board other = (Board)obj;
+		if(other.width!=width || other.height!=height || other.hash!=hash || other.maxHeight!=maxHeight) return false;
+		for(int y=0;y<maxHeight;y++){
+			int base = slot[y]*words;
+			int otherBase = other.slot[y]*words;
+			for(int w=0;w<words;w++){
+				if(rows[base+w]!=other.rows[otherBase+w]) return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 Hash code derived from the Zobrist hash, consistent with equals().
+	*/
+	public int hashCode() {
+		return (int)(hash ^ (hash>>>32));
+	}
+	
+	
 	/*
 	 Renders the board state as a big String, suitable for printing.
 	 This is the sort of print-obj-state utility that can help see complex
@@ -0,0 +1,102 @@
+// BoardBenchmark.java
+import java.util.Random;
+
+/**
+ Times the core Board operations over a range of board sizes, to show
+ how their cost scales with width and height.
+ For each size the board is first filled to half its height with
+ garbage, then three operations are timed:
+ <ul>
+ <li>place+undo -- a flat stick dropped at every x in turn, then undone,
+ <li>clear+undo -- four full rows pushed in under the stack, cleared, then undone,
+ <li>copy -- copyFrom() into a board of the same size.
+ </ul>
+ Results are nanoseconds per operation.
+
+ Usage: java BoardBenchmark [seconds per measurement]
+*/
+public class BoardBenchmark {
+	private static final int[] WIDTHS = {10, 64, 128, 256};
+	private static final int[] HEIGHTS = {24, 100, 1000};
+
+	private static long sink;		// results are summed here so the JIT can't drop the work
+
+	// One timed operation
+	private static abstract class Op {
+		abstract int run();
+	}
+
+	public static void main(String[] args) {
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 0.25;
+		System.out.println(String.format("%6s %6s %12s %12s %12s", "width", "height", "place+undo", "clear+undo", "copy"));
+		for (int height : HEIGHTS) {
+			for (int width : WIDTHS) {
+				final Board board = fill(width, height);
+				final Board copy = new Board(width, height);
+				final Piece stick = Piece.getPieces()[Piece.STICK].fastRotation();		// flat, 4 wide
+
+				double place = time(seconds, new Op() {
+					int x;
+					int run() {
+						x = (x + 1) % (board.getWidth() - 3);
+						int result = board.place(stick, x, board.dropHeight(stick, x));
+						board.undo();
+						return result;
+					}
+				});
+				double clear = time(seconds, new Op() {
+					int run() {
+						board.addGarbage(4, -1);
+						int result = board.clearRows();
+						board.undo();
+						return result;
+					}
+				});
+				double copying = time(seconds, new Op() {
+					int run() {
+						copy.copyFrom(board);
+						return copy.getMaxHeight();
+					}
+				});
+				System.out.println(String.format("%6d %6d %12.1f %12.1f %12.1f", width, height, place, clear, copying));
+			}
+		}
+		System.out.println("checksum " + sink);
+	}
+
+	/**
+	 Makes a committed board filled to half its height with garbage rows,
+	 each with a random hole.
+	*/
+	private static Board fill(int width, int height) {
+		Board board = new Board(width, height);
+		Random random = new Random(width * 31 + height);
+		for (int y=0; y<height/2; y++) {
+			board.addGarbage(1, random.nextInt(width));
+			board.commit();
+		}
+		return board;
+	}
+
+	/**
+	 Runs the operation for about the given time after a warm-up of the
+	 same length, and returns the average nanoseconds per run.
+	*/
+	private static double time(double seconds, Op op) {
+		measure(seconds, op);		// warm up
+		return measure(seconds, op);
+	}
+
+	private static double measure(double seconds, Op op) {
+		long budget = (long)(seconds * 1e9);
+		long runs = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i=0; i<1000; i++) sink += op.run();
+			runs += 1000;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < budget);
+		return ((double)elapsed) / runs;
+	}
+}
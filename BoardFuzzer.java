@@ -0,0 +1,413 @@
+// BoardFuzzer.java
+import java.util.*;
+
+/**
+ Differential fuzz tester for Board.
+ Plays long random sequences of place/clearRows/addGarbage/undo/commit/
+ checkpoint/rollback against three boards at once:
+ <ul>
+ <li>a plain Board, which keeps everything incrementally and checks nothing,
+ <li>a VerifyingBoard, which recomputes its bookkeeping after every operation,
+ <li>a deliberately simple reference model -- a boolean grid that snapshots
+ the whole grid for undo and checkpoints.
+ </ul>
+ After every operation the results and all observable state are compared,
+ and the first divergence is reported with the seed, the step and the
+ operations leading up to it, so it can be replayed.
+
+ Usage: java BoardFuzzer [operations] [seed]
+*/
+public class BoardFuzzer {
+	// Operation codes
+	private static final int PLACE = 0;		// place at a random position
+	private static final int DROP = 1;		// place where the piece would land
+	private static final int CLEAR = 2;
+	private static final int UNDO = 3;
+	private static final int COMMIT = 4;
+	private static final int CHECKPOINT = 5;
+	private static final int ROLLBACK = 6;
+	private static final int GARBAGE = 7;
+	private static final String[] OP_NAMES = {"place", "drop", "clearRows", "undo", "commit", "checkpoint", "rollback", "addGarbage"};
+
+	private static final int HISTORY = 16;		// number of operations shown in a divergence report
+	private static final int MAX_DEPTH = 12;	// checkpoints deeper than this are not opened
+
+	private final Random random;
+	private final long seed;
+	private final Piece[] pieces;
+
+	private Board fast;
+	private VerifyingBoard verifying;
+	private Reference reference;
+
+	// the last HISTORY operations, as (op, piece index, x, y) in a ring buffer
+	private final int[][] history = new int[HISTORY][4];
+	private long step;
+
+	/**
+	 Creates a fuzzer whose whole run is determined by the seed.
+	*/
+	public BoardFuzzer(long seed) {
+		this.seed = seed;
+		this.random = new Random(seed);
+
+		// every rotation of every piece
+		List<Piece> all = new ArrayList<Piece>();
+		for (Piece root : Piece.getPieces()) {
+			Piece p = root;
+			do {
+				all.add(p);
+				p = p.fastRotation();
+			} while (p != root);
+		}
+		pieces = all.toArray(new Piece[0]);
+	}
+
+
+	/**
+	 Runs the given number of operations, starting a new board of a random
+	 size every "boardOps" operations. Returns null if all three boards agreed
+	 throughout, otherwise a description of the first divergence.
+	*/
+	public String run(long operations, int boardOps) {
+		for (step=0; step<operations; step++) {
+			if (step % boardOps == 0) {
+				int width = 4 + random.nextInt(197);								// rows of one to four words
+				if (random.nextInt(4) == 0) width = 64*(1 + random.nextInt(3)) + random.nextInt(3) - 1;	// either side of a word boundary
+				if (random.nextBoolean()) width = 4 + random.nextInt(9);		// mostly the small sizes games actually use
+				int height = 4 + random.nextInt(30);
+				fast = new Board(width, height);
+				verifying = new VerifyingBoard(width, height);
+				reference = new Reference(width, height);
+			}
+
+			String problem;
+			try {
+				problem = step();
+			}
+			catch (RuntimeException e) {
+				problem = "exception " + e;
+			}
+			if (problem != null) {
+				return report(problem);
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 Picks and performs one random operation that is legal in the current
+	 state, then compares the boards. Returns null if they agree.
+	*/
+	private String step() {
+		int op = random.nextInt(16);
+		if (op < 5) op = DROP;
+		else if (op < 7) op = PLACE;
+		else if (op < 9) op = CLEAR;
+		else if (op < 11) op = UNDO;
+		else if (op < 12) op = COMMIT;
+		else if (op < 13) op = CHECKPOINT;
+		else if (op < 15) op = ROLLBACK;
+		else op = GARBAGE;
+
+		// keep to the legal sequences: place and addGarbage need a committed board,
+		// rollback needs an open checkpoint
+		if ((op==PLACE || op==DROP || op==GARBAGE) && !reference.committed) op = random.nextBoolean() ? UNDO : COMMIT;
+		if (op==ROLLBACK && reference.marks.isEmpty()) op = CHECKPOINT;
+		if (op==CHECKPOINT && reference.marks.size() >= MAX_DEPTH) op = ROLLBACK;
+
+		int pieceIndex = random.nextInt(pieces.length);
+		Piece piece = pieces[pieceIndex];
+		int x = random.nextInt(fast.getWidth()+2) - 1;
+		int y = random.nextInt(fast.getHeight()+2) - 1;
+		if (op == DROP) {
+			x = random.nextInt(fast.getWidth() - piece.getWidth() + 1);
+			y = fast.dropHeight(piece, x);
+		}
+		if (op == GARBAGE) {
+			x = random.nextInt(fast.getWidth()+1);		// hole column -- width means no hole
+			y = random.nextInt(3);						// lines
+		}
+		int[] entry = history[(int)(step % HISTORY)];
+		entry[0] = op;
+		entry[1] = pieceIndex;
+		entry[2] = x;
+		entry[3] = y;
+
+		int expected = 0, got = 0, gotVerifying = 0;
+		switch (op) {
+			case PLACE:
+			case DROP:
+				expected = reference.place(piece, x, y);
+				got = fast.place(piece, x, y);
+				gotVerifying = verifying.place(piece, x, y);
+				break;
+			case CLEAR:
+				expected = reference.clearRows();
+				got = fast.clearRows();
+				gotVerifying = verifying.clearRows();
+				break;
+			case GARBAGE:
+				expected = reference.addGarbage(y, x);
+				got = fast.addGarbage(y, x);
+				gotVerifying = verifying.addGarbage(y, x);
+				break;
+			case UNDO:
+				reference.undo();
+				fast.undo();
+				verifying.undo();
+				break;
+			case COMMIT:
+				reference.commit();
+				fast.commit();
+				verifying.commit();
+				break;
+			case CHECKPOINT:
+				expected = reference.checkpoint();
+				got = fast.checkpoint();
+				gotVerifying = verifying.checkpoint();
+				break;
+			case ROLLBACK:
+				reference.rollback();
+				fast.rollback();
+				verifying.rollback();
+				break;
+		}
+		if (got != expected || gotVerifying != expected) {
+			return OP_NAMES[op] + " returned " + got + " (verifying board " + gotVerifying + "), expected " + expected;
+		}
+		return compare();
+	}
+
+
+	/**
+	 Compares all observable state of the two boards against the reference.
+	 Returns null if everything matches.
+	*/
+	private String compare() {
+		String problem = compare(fast, "board");
+		if (problem == null) problem = compare(verifying, "verifying board");
+		if (problem == null && fast.getHash() != verifying.getHash()) {
+			return "hashes differ: " + fast.getHash() + " vs " + verifying.getHash();
+		}
+		if (problem == null && !fast.equals(verifying)) {
+			return "boards are not equal()";
+		}
+		return problem;
+	}
+
+	private String compare(Board board, String name) {
+		Reference ref = reference;
+		if (board.getCommitted() != ref.committed) return name + " committed " + board.getCommitted() + ", expected " + ref.committed;
+		if (board.getCheckpointDepth() != ref.marks.size()) return name + " checkpoint depth " + board.getCheckpointDepth() + ", expected " + ref.marks.size();
+
+		int blocks = 0, sumHeight = 0, holes = 0, bumpiness = 0, wells = 0, full = 0;
+		for (int x=0; x<ref.width; x++) {
+			for (int y=0; y<ref.height; y++) {
+				if (board.getGrid(x, y) != ref.grid[x][y]) return name + " block (" + x + "," + y + ") is " + board.getGrid(x, y);
+			}
+			int h = ref.columnHeight(x);
+			if (board.getColumnHeight(x) != h) return name + " column " + x + " height " + board.getColumnHeight(x) + ", expected " + h;
+			int count = ref.columnCount(x);
+			if (board.getColumnHoles(x) != h - count) return name + " column " + x + " holes " + board.getColumnHoles(x) + ", expected " + (h - count);
+			int left = (x==0) ? ref.height : ref.columnHeight(x-1);
+			int right = (x==ref.width-1) ? ref.height : ref.columnHeight(x+1);
+			int well = Math.max(0, Math.min(left, right) - h);
+			if (board.getWellDepth(x) != well) return name + " column " + x + " well depth " + board.getWellDepth(x) + ", expected " + well;
+
+			blocks += count;
+			sumHeight += h;
+			holes += h - count;
+			wells += well;
+			if (x > 0) bumpiness += Math.abs(h - ref.columnHeight(x-1));
+		}
+		int maxHeight = 0;
+		for (int y=0; y<ref.height; y++) {
+			int w = ref.rowWidth(y);
+			if (board.getRowWidth(y) != w) return name + " row " + y + " width " + board.getRowWidth(y) + ", expected " + w;
+			if (w == ref.width) full++;
+			if (w > 0) maxHeight = y+1;
+		}
+		if (board.getMaxHeight() != maxHeight) return name + " max height " + board.getMaxHeight() + ", expected " + maxHeight;
+		if (board.getBlockCount() != blocks) return name + " block count " + board.getBlockCount() + ", expected " + blocks;
+		if (board.getSumHeight() != sumHeight) return name + " sum of heights " + board.getSumHeight() + ", expected " + sumHeight;
+		if (board.getHoles() != holes) return name + " holes " + board.getHoles() + ", expected " + holes;
+		if (board.getBumpiness() != bumpiness) return name + " bumpiness " + board.getBumpiness() + ", expected " + bumpiness;
+		if (board.getTotalWellDepth() != wells) return name + " total well depth " + board.getTotalWellDepth() + ", expected " + wells;
+		if (board.getFullRowCount() != full) return name + " full rows " + board.getFullRowCount() + ", expected " + full;
+		return null;
+	}
+
+
+	/**
+	 Formats a divergence report: seed, step, recent operations and both boards.
+	*/
+	private String report(String problem) {
+		StringBuilder buff = new StringBuilder();
+		buff.append("DIVERGENCE with seed ").append(seed).append(" at step ").append(step).append(": ").append(problem).append('\n');
+		buff.append("board ").append(fast.getWidth()).append('x').append(fast.getHeight()).append(", most recent operations last:\n");
+		for (long i=Math.max(0, step-HISTORY+1); i<=step; i++) {
+			int[] entry = history[(int)(i % HISTORY)];
+			buff.append("  ").append(i).append(' ').append(OP_NAMES[entry[0]]);
+			if (entry[0]==PLACE || entry[0]==DROP) buff.append(" piece ").append(entry[1]).append(" at ").append(entry[2]).append(',').append(entry[3]);
+			if (entry[0]==GARBAGE) buff.append(' ').append(entry[3]).append(" lines, hole at ").append(entry[2]);
+			buff.append('\n');
+		}
+		buff.append("board:\n").append(fast).append('\n');
+		buff.append("reference:\n").append(reference);
+		return buff.toString();
+	}
+
+
+	/**
+	 The reference model: a plain boolean grid, with whole-grid copies for
+	 undo() and checkpoints. Slow and obviously correct.
+	*/
+	private static class Reference {
+		final int width;
+		final int height;
+		boolean[][] grid;
+		boolean[][] undoGrid;		// the grid as of the last commit, checkpoint or rollback
+		boolean committed = true;
+		final Deque<boolean[][]> marks = new ArrayDeque<boolean[][]>();
+
+		Reference(int width, int height) {
+			this.width = width;
+			this.height = height;
+			grid = new boolean[width][height];
+			undoGrid = copy(grid);
+		}
+
+		int place(Piece piece, int x, int y) {
+			if (!committed) throw new RuntimeException("reference place while uncommitted");
+			committed = false;
+			if (x<0 || y<0 || x+piece.getWidth()>width || y+piece.getHeight()>height) return Board.PLACE_OUT_BOUNDS;
+			for (TPoint pt : piece.getBody()) {
+				if (grid[x+pt.x][y+pt.y]) return Board.PLACE_BAD;
+			}
+			int result = Board.PLACE_OK;
+			for (TPoint pt : piece.getBody()) {
+				grid[x+pt.x][y+pt.y] = true;
+			}
+			for (TPoint pt : piece.getBody()) {
+				if (rowWidth(y+pt.y) == width) result = Board.PLACE_ROW_FILLED;
+			}
+			return result;
+		}
+
+		int clearRows() {
+			committed = false;
+			int cleared = 0;
+			for (int y=0; y<height; y++) {
+				if (rowWidth(y) == width) {
+					cleared++;
+				}
+				else {
+					for (int x=0; x<width; x++) grid[x][y-cleared] = grid[x][y];
+				}
+			}
+			for (int y=height-cleared; y<height; y++) {
+				for (int x=0; x<width; x++) grid[x][y] = false;
+			}
+			return cleared;
+		}
+
+		int addGarbage(int lines, int holeX) {
+			if (!committed) throw new RuntimeException("reference addGarbage while uncommitted");
+			committed = false;
+			int maxHeight = 0;
+			for (int y=0; y<height; y++) {
+				if (rowWidth(y) > 0) maxHeight = y+1;
+			}
+			if (lines < 0 || maxHeight + lines > height) return Board.PLACE_OUT_BOUNDS;
+			if (lines == 0) return Board.PLACE_OK;
+			for (int y=height-1; y>=0; y--) {
+				for (int x=0; x<width; x++) {
+					grid[x][y] = (y >= lines) ? grid[x][y-lines] : (x != holeX);
+				}
+			}
+			return (holeX<0 || holeX>=width) ? Board.PLACE_ROW_FILLED : Board.PLACE_OK;
+		}
+
+		void undo() {
+			if (!committed) grid = copy(undoGrid);
+			committed = true;
+		}
+
+		void commit() {
+			committed = true;
+			undoGrid = copy(grid);
+		}
+
+		int checkpoint() {
+			marks.push(copy(grid));
+			commit();
+			return marks.size();
+		}
+
+		void rollback() {
+			grid = marks.pop();
+			commit();
+		}
+
+		int columnHeight(int x) {
+			for (int y=height-1; y>=0; y--) {
+				if (grid[x][y]) return y+1;
+			}
+			return 0;
+		}
+
+		int columnCount(int x) {
+			int count = 0;
+			for (int y=0; y<height; y++) {
+				if (grid[x][y]) count++;
+			}
+			return count;
+		}
+
+		int rowWidth(int y) {
+			int count = 0;
+			for (int x=0; x<width; x++) {
+				if (grid[x][y]) count++;
+			}
+			return count;
+		}
+
+		static boolean[][] copy(boolean[][] grid) {
+			boolean[][] result = new boolean[grid.length][];
+			for (int x=0; x<grid.length; x++) result[x] = grid[x].clone();
+			return result;
+		}
+
+		public String toString() {
+			StringBuilder buff = new StringBuilder();
+			for (int y=height-1; y>=0; y--) {
+				buff.append('|');
+				for (int x=0; x<width; x++) buff.append(grid[x][y] ? '+' : ' ');
+				buff.append("|\n");
+			}
+			for (int x=0; x<width+2; x++) buff.append('-');
+			return buff.toString();
+		}
+	}
+
+
+	/**
+	 Runs the fuzzer from the command line. Exits with status 1 on a divergence.
+	*/
+	public static void main(String[] args) {
+		long operations = (args.length > 0) ? Long.parseLong(args[0]) : 1000000;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : System.nanoTime();
+
+		long start = System.nanoTime();
+		String problem = new BoardFuzzer(seed).run(operations, 2000);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		if (problem != null) {
+			System.out.println(problem);
+			System.exit(1);
+		}
+		System.out.println(operations + " operations with seed " + seed + " agreed (" + Math.round(operations/seconds) + " ops/sec)");
+	}
+}
@@ -0,0 +1,94 @@
+// BoardPool.java
+import java.util.ArrayDeque;
+
+/**
+ A supply of reusable scratch boards, so that search workers and
+ simulators can fork positions without allocating a new Board each time.
+
+ Typical client code looks like...
+ <pre>
+ BoardPool pool = BoardPool.local();		// this thread's pool
+ Board scratch = pool.acquire(board);		// a private copy of board
+ ... place/undo/checkpoint on scratch ...
+ pool.release(scratch);
+ </pre>
+
+ A pool is not thread safe; each thread should use its own, which
+ is what local() provides. Boards handed out by one thread's pool may
+ be released into any pool.
+*/
+public class BoardPool {
+	private final int width;
+	private final int height;
+	private final ArrayDeque<Board> free = new ArrayDeque<Board>();
+	private int created;		// boards made by this pool, for spotting leaks
+	private Board blank;		// an empty board of the pool's size, made on first use
+
+	// one pool per thread, holding boards the size of the standard game board
+	private static final ThreadLocal<BoardPool> LOCAL = new ThreadLocal<BoardPool>() {
+		protected BoardPool initialValue() {
+			return new BoardPool(JTetris.WIDTH, JTetris.HEIGHT + JTetris.TOP_SPACE);
+		}
+	};
+
+	/**
+	 Creates an empty pool whose new boards are the given size.
+	*/
+	public BoardPool(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 Returns the calling thread's pool of standard size
+	 (JTetris.WIDTH by JTetris.HEIGHT + JTetris.TOP_SPACE) boards.
+	*/
+	public static BoardPool local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 Returns an empty, committed board of the pool's size -- recycled if
+	 one is available.
+	*/
+	public Board acquire() {
+		if (blank == null) blank = new Board(width, height);
+		return acquire(blank);
+	}
+
+	/**
+	 Returns a committed board that is a copy of the source board.
+	 Does not allocate once the pool has warmed up, as long as the source
+	 is the pool's board size.
+	*/
+	public Board acquire(Board source) {
+		Board board = free.poll();
+		if (board == null) {
+			created++;
+			board = new Board(source.getWidth(), source.getHeight());
+		}
+		board.copyFrom(source);
+		return board;
+	}
+
+	/**
+	 Gives a board back to the pool for reuse. The caller must not use it afterwards.
+	*/
+	public void release(Board board) {
+		free.push(board);
+	}
+
+	/**
+	 Returns the number of boards waiting in the pool.
+	*/
+	public int available() {
+		return free.size();
+	}
+
+	/**
+	 Returns the number of boards this pool has had to create.
+	*/
+	public int getCreated() {
+		return created;
+	}
+}
@@ -212,5 +212,215 @@ public class BoardTest {
 		assertEquals(false, b.getGrid(2, 1));
 	}
 	
+	// Check nested checkpoint/rollback, including clearRows and commit inside a level
+	@Test
+	public void testCheckpoint() {
+		b.commit();
+		String start = b.toString();
+		assertEquals(1, b.checkpoint());
+		assertEquals(Board.PLACE_OK, b.place(pyr4, 0, 1));
+		String level1 = b.toString();
+		assertEquals(2, b.checkpoint());
+		assertEquals(Board.PLACE_ROW_FILLED, b.place(pyr3, 0, 3));
+		assertEquals(2, b.clearRows());
+		b.commit();
+		assertEquals(3, b.getMaxHeight());
+		assertEquals(3, b.checkpoint());
+		assertEquals(Board.PLACE_BAD, b.place(pyr1, 0, 0));
+		b.undo();		// undo only goes back to the innermost checkpoint
+		assertEquals(3, b.getMaxHeight());
+		b.rollback();
+		b.rollback();
+		assertEquals(level1, b.toString());
+		assertEquals(4, b.getMaxHeight());
+		assertEquals(3, b.getColumnHeight(1));
+		assertEquals(1, b.getCheckpointDepth());
+		b.rollback();
+		assertEquals(start, b.toString());
+		assertEquals(2, b.getMaxHeight());
+		assertEquals(3, b.getRowWidth(0));
+		assertEquals(0, b.getCheckpointDepth());
+		assertEquals(true, b.getCommitted());
+	}
+	
+	// Check that the hash depends only on the blocks, and that undo/rollback restore it
+	@Test
+	public void testHash() {
+		b.commit();
+		long start = b.getHash();
+		assertTrue(start != new Board(3, 6).getHash());
+		b.place(pyr4, 0, 1);
+		long afterPyr4 = b.getHash();
+		b.undo();
+		assertEquals(start, b.getHash());
+		
+		// same blocks built in a different order
+		Board other = new Board(3, 6);
+		other.place(pyr4, 0, 1);
+		other.commit();
+		other.place(pyr1, 0, 0);
+		assertEquals(afterPyr4, other.getHash());
+		b.place(pyr4, 0, 1);
+		assertEquals(b, other);
+		assertEquals(b.hashCode(), other.hashCode());
+		
+		// clearRows moves rows down, and the hash follows
+		b.commit();
+		b.checkpoint();
+		b.place(pyr3, 0, 3);
+		b.clearRows();
+		Board cleared = new Board(3, 6);		// what is left is a 2x3 block in columns 0 and 1
+		cleared.place(new Piece("0 0  1 0  0 1  1 1  0 2  1 2"), 0, 0);
+		assertEquals(cleared.getHash(), b.getHash());
+		assertEquals(cleared, b);
+		b.rollback();
+		assertEquals(afterPyr4, b.getHash());
+
+		// the same row at a different height hashes differently
+		Board low = new Board(3, 6);
+		Board high = new Board(3, 6);
+		low.place(new Piece("0 0"), 0, 0);
+		high.place(new Piece("0 0"), 0, 1);
+		assertTrue(low.getHash() != high.getHash());
+		assertTrue(Board.zobristKey(-1, 0) != Board.zobristKey(-1, 1));
+	}
+	
+	// Check the incrementally maintained features, including after undo
+	@Test
+	public void testFeatures() {
+		assertEquals(4, b.getSumHeight());
+		assertEquals(2, b.getBumpiness());
+		assertEquals(0, b.getHoles());
+		assertEquals(1, b.getWellDepth(0));
+		assertEquals(0, b.getWellDepth(1));
+		assertEquals(2, b.getTotalWellDepth());
+		assertEquals(4, b.getBlockCount());
+		
+		b.commit();
+		b.place(pyr3, 0, 3);		// up in the air, leaving holes underneath
+		assertEquals(15, b.getSumHeight());
+		assertEquals(0, b.getBumpiness());
+		assertEquals(3, b.getColumnHoles(0));
+		assertEquals(1, b.getColumnHoles(1));
+		assertEquals(7, b.getHoles());
+		assertEquals(0, b.getTotalWellDepth());
+		
+		b.clearRows();
+		assertEquals(3, b.getSumHeight());
+		assertEquals(1, b.getHoles());
+		assertEquals(2, b.getBlockCount());
+		
+		b.undo();
+		assertEquals(4, b.getSumHeight());
+		assertEquals(2, b.getBumpiness());
+		assertEquals(0, b.getHoles());
+		assertEquals(2, b.getTotalWellDepth());
+	}
+	
+	// Check garbage rows pushed in at the bottom, and undoing them
+	@Test
+	public void testGarbage() {
+		b.commit();
+		assertEquals(Board.PLACE_OK, b.addGarbage(2, 1));
+		assertEquals(3, b.getColumnHeight(0));
+		assertEquals(4, b.getColumnHeight(1));
+		assertEquals(3, b.getColumnHeight(2));
+		assertEquals(4, b.getMaxHeight());
+		assertEquals(false, b.getGrid(1, 0));
+		assertEquals(true, b.getGrid(0, 1));
+		assertEquals(3, b.getRowWidth(2));
+		assertEquals(1, b.getFullRowCount());
+		assertEquals(2, b.getHoles());
+		
+		b.undo();
+		assertEquals(2, b.getMaxHeight());
+		assertEquals(3, b.getRowWidth(0));
+		assertEquals(1, b.getRowWidth(1));
+		
+		// too tall to fit -- nothing changes
+		assertEquals(Board.PLACE_OUT_BOUNDS, b.addGarbage(5, 0));
+		b.undo();
+		assertEquals(2, b.getMaxHeight());
+	}
+	
+	// Short differential fuzz run: Board, VerifyingBoard and the reference model must agree
+	@Test
+	public void testFuzz() {
+		assertEquals(null, new BoardFuzzer(108).run(20000, 500));
+	}
+	
+	// Check copyFrom(), including into a board of a different size
+	@Test
+	public void testCopy() {
+		Board copy = new Board(3, 6);
+		copy.copyFrom(b);
+		assertEquals(b, copy);
+		assertEquals(true, copy.getCommitted());
+		assertEquals(2, copy.getMaxHeight());
+		assertEquals(4, copy.getSumHeight());
+		
+		// the copy is independent of the original
+		copy.place(pyr3, 0, 3);
+		copy.clearRows();
+		b.commit();
+		assertEquals(2, b.getMaxHeight());
+		assertEquals(3, b.getRowWidth(0));
+		copy.undo();
+		assertEquals(b, copy);
+		
+		Board wide = new Board(10, 24);
+		wide.copyFrom(copy);
+		assertEquals(3, wide.getWidth());
+		assertEquals(b, wide);
+		wide.sanityCheck();
+	}
+	
+	// canPlace() tests a position without changing the board
+	@Test
+	public void testCanPlace() {
+		assertEquals(false, b.canPlace(pyr1, 0, 0));
+		assertEquals(true, b.canPlace(pyr1, 0, 2));
+		assertEquals(true, b.canPlace(new Piece("0 0"), 0, 1));
+		assertEquals(false, b.canPlace(new Piece("0 0"), 1, 1));
+		assertEquals(false, b.canPlace(pyr1, 1, 2));		// off the right side
+		assertEquals(false, b.canPlace(pyr1, 0, 5));		// off the top
+		assertEquals(false, b.canPlace(pyr1, 0, -1));
+		assertEquals(2, b.getMaxHeight());
+		assertEquals(4, b.getBlockCount());
+	}
+	
+	// Rows wider than 64 blocks span several words
+	@Test
+	public void testWide() {
+		Board w = new VerifyingBoard(130, 10);
+		Piece stick = new Piece(Piece.STICK_STR).computeNextRotation();	// horizontal, 4 wide
+		assertEquals(Board.PLACE_OK, w.place(stick, 62, 0));			// straddles the first word boundary
+		w.commit();
+		assertEquals(true, w.getGrid(63, 0));
+		assertEquals(true, w.getGrid(64, 0));
+		assertEquals(false, w.getGrid(66, 0));
+		assertEquals(4, w.getRowWidth(0));
+		assertEquals(1, w.getColumnHeight(65));
+		assertEquals(Board.PLACE_BAD, w.place(stick, 59, 0));
+		w.undo();
+		assertEquals(1, w.dropHeight(stick, 60));
+		assertEquals(0, w.dropHeight(stick, 126));
+		
+		// a full row across all three words, then clear it
+		assertEquals(Board.PLACE_ROW_FILLED, w.addGarbage(1, -1));
+		w.commit();
+		assertEquals(130, w.getRowWidth(0));
+		assertEquals(1, w.getFullRowCount());
+		long before = w.getHash();
+		assertEquals(1, w.clearRows());
+		assertEquals(4, w.getRowWidth(0));
+		assertEquals(1, w.getMaxHeight());
+		w.undo();
+		assertEquals(before, w.getHash());
+		assertEquals(130, w.getRowWidth(0));
+		assertEquals(2, w.getColumnHeight(64));
+		assertEquals(1, w.getColumnHeight(129));
+	}
+	
 	
 }
@@ -0,0 +1,304 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.*;
+
+/*
+  Unit tests for the Brain implementations.
+ */
+public class BrainTest {
+	private Piece[] pieces;
+	private DefaultBrain serial;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+		serial = new DefaultBrain();
+	}
+
+	// Plays a game with the given brain, checking each of its moves
+	// against DefaultBrain's choice for the same position
+	private void assertSameMoves(Brain brain, int width, long seed) {
+		Random random = new Random(seed);
+		Board board = new Board(width, 24);
+		for (int n=0; n<300; n++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			Brain.Move expected = serial.bestMove(board, piece, 20, null);
+			Brain.Move got = brain.bestMove(board, piece, 20, null);
+			if (expected == null) {
+				assertEquals(null, got);
+				return;
+			}
+			assertSame(expected.piece, got.piece);
+			assertEquals(expected.x, got.x);
+			assertEquals(expected.y, got.y);
+			assertEquals(expected.score, got.score, 0.0);
+			board.place(got.piece, got.x, got.y);
+			board.clearRows();
+			board.commit();
+			if (board.getMaxHeight() > 20) return;
+		}
+	}
+
+	// Caching scores does not change the moves, even in a cache small enough to evict
+	@Test
+	public void testCache() {
+		EvalCache small = new EvalCache(1<<12);
+		assertSameMoves(new DefaultBrain(small), 10, 12);
+		assertTrue(small.getEvictions() > 0);
+
+		EvalCache big = new EvalCache(1<<20);
+		DefaultBrain cached = new DefaultBrain(big);
+		assertSameMoves(cached, 5, 13);
+		assertEquals(0, big.getHits());
+		assertSameMoves(cached, 5, 13);		// the same boards again, all hits this time
+		assertEquals(big.getMisses(), big.getHits());
+	}
+
+	// The parallel brain picks exactly DefaultBrain's move, ties included
+	@Test
+	public void testParallel() {
+		java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+		try {
+			ParallelBrain brain = new ParallelBrain(new DefaultBrain(), pool);
+			assertSameMoves(brain, 10, 1);
+			assertSameMoves(brain, 3, 2);
+			assertSameMoves(brain, 70, 3);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	// Without lookahead the beam brain is DefaultBrain; with a beam wide
+	// enough to keep everything it finds the best two-piece line
+	@Test
+	public void testBeam() {
+		assertSameMoves(new BeamBrain(6, 1), 10, 4);
+		assertSameMoves(new BeamBrain(6, 3), 10, 5);		// no preview, so still greedy
+		
+		Random random = new Random(6);
+		Board board = new Board(6, 12);
+		BeamBrain brain = new BeamBrain(1000, 2);
+		for (int n=0; n<20; n++) {
+			Piece first = pieces[random.nextInt(pieces.length)];
+			Piece second = pieces[random.nextInt(pieces.length)];
+			Brain.Move move = brain.bestMove(board, first, new Piece[] {second}, 8, null);
+			if (move == null) break;
+			assertEquals(bestLine(board, first, second, 8), move.score, 0.0);
+			board.place(move.piece, move.x, move.y);
+			board.clearRows();
+			board.commit();
+		}
+		assertTrue(brain.getNodes() > 0);
+	}
+	
+	// A deadline or cancel() cuts the search short but still gives a move
+	@Test
+	public void testAnytime() throws Exception {
+		Piece[] preview = {pieces[Piece.S1], pieces[Piece.L2]};
+		Board board = new Board(10, 24);
+		BeamBrain brain = new BeamBrain(4, 3);
+		Brain.Move full = brain.bestMove(board, pieces[Piece.PYRAMID], preview, 20, null);
+		Brain.Move timed = brain.bestMove(board, pieces[Piece.PYRAMID], preview, 20, null, System.nanoTime() + 60000000000L);
+		assertEquals(3, brain.getCompletedDepth());
+		assertSame(full.piece, timed.piece);
+		assertEquals(full.x, timed.x);
+		assertEquals(full.score, timed.score, 0.0);
+		
+		assertEquals(null, brain.bestMove(board, pieces[Piece.PYRAMID], preview, 20, null, System.nanoTime() - 1));
+		
+		// a search that would take far too long, cancelled from this thread
+		final BeamBrain slow = new BeamBrain(200, 60);
+		final Piece[] longPreview = new Piece[59];
+		for (int i=0; i<longPreview.length; i++) longPreview[i] = pieces[i % pieces.length];
+		final Board wide = new Board(64, 200);
+		final Brain.Move[] result = new Brain.Move[1];
+		Thread search = new Thread() {
+			public void run() {
+				result[0] = slow.bestMove(wide, pieces[Piece.STICK], longPreview, 190, null, System.nanoTime() + 60000000000L);
+			}
+		};
+		search.start();
+		while (!slow.isSearching() && search.isAlive()) Thread.sleep(1);	// cancel() only stops a running search
+		slow.cancel();
+		search.join(10000);
+		assertFalse(search.isAlive());
+		assertTrue(result[0] != null);
+		assertTrue(slow.getCompletedDepth() < 60);
+
+		// a cancel() between searches does not carry over to the next one
+		brain.cancel();
+		slow.cancel();
+		assertTrue(brain.bestMove(board, pieces[Piece.PYRAMID], preview, 20, null, System.nanoTime() + 60000000000L) != null);
+		assertEquals(brain.getDepth(), brain.getCompletedDepth());
+		slow.bestMove(board, pieces[Piece.PYRAMID], preview, 20, null, System.nanoTime() + 60000000000L);
+		assertEquals(preview.length + 1, slow.getCompletedDepth());
+	}
+	
+	// The move generator finds a slide under an overhang, with a path that gets there
+	@Test
+	public void testMoveGenerator() {
+		Board board = new Board(5, 8);
+		board.place(new Piece("0 0  1 0  2 0"), 2, 2);		// a floating ledge over columns 2-4
+		board.commit();
+		Piece square = pieces[Piece.SQUARE];
+		assertEquals(3, board.dropHeight(square, 3));
+		
+		MoveGenerator moves = new MoveGenerator();
+		int found = moves.generate(board, square);
+		int tuck = -1;
+		for (int i=0; i<found; i++) {
+			assertFalse(board.canPlace(moves.getPiece(i), moves.getX(i), moves.getY(i)-1));
+			if (moves.getX(i) == 3 && moves.getY(i) == 0) tuck = i;
+		}
+		assertTrue(tuck >= 0);
+		
+		// replay the path with JTetris's rules
+		Piece piece = square;
+		int x = (5 - 2)/2, y = 8 - 2;
+		for (int verb : moves.getPath(tuck)) {
+			int nx = x, ny = y;
+			if (verb == JTetris.LEFT) nx--;
+			else if (verb == JTetris.RIGHT) nx++;
+			else if (verb == JTetris.DOWN) ny--;
+			else if (verb == JTetris.DROP) ny = Math.min(y, board.dropHeight(piece, x));
+			assertTrue(board.canPlace(piece, nx, ny));
+			x = nx;
+			y = ny;
+		}
+		assertEquals(3, x);
+		assertEquals(0, y);
+		assertTrue(moves.getStates() > found);
+	}
+	
+	// Depth 1 is DefaultBrain; depth 2 finds the best expected score over the
+	// next piece, pruning and memoizing without changing it
+	@Test
+	public void testExpectimax() {
+		assertSameMoves(new ExpectimaxBrain(new DefaultBrain(), pieces, 1, new EvalCache(1<<20)), 10, 7);
+
+		Random random = new Random(8);
+		Board board = new Board(6, 12);
+		ExpectimaxBrain brain = new ExpectimaxBrain(new DefaultBrain(), pieces, 2, new EvalCache(1<<20));
+		for (int n=0; n<15; n++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			Brain.Move move = brain.bestMove(board, piece, 8, null);
+			if (move == null) break;
+			assertEquals(bestExpected(board, piece, 8), move.score, 0.0);
+			board.place(move.piece, move.x, move.y);
+			board.clearRows();
+			board.commit();
+		}
+		assertTrue(brain.getNodes() > 0);
+		assertTrue(brain.getPruned() > 0);
+
+		// the memo is kept across moves, but not across height limits or piece sets
+		Board low = new Board(6, 12);
+		low.place(pieces[Piece.L1], 0, 0);
+		low.commit();
+		Piece stick = pieces[Piece.STICK];
+		brain.bestMove(low, stick, 8, null);
+		assertEquals(bestExpected(low, stick, 5), brain.bestMove(low, stick, 5, null).score, 0.0);
+		EvalCache shared = new EvalCache(1<<20);
+		Piece[] squares = {pieces[Piece.SQUARE]};
+		new ExpectimaxBrain(new DefaultBrain(), pieces, 2, shared).bestMove(low, stick, 8, null);
+		ExpectimaxBrain sharing = new ExpectimaxBrain(new DefaultBrain(), squares, 2, shared);
+		ExpectimaxBrain alone = new ExpectimaxBrain(new DefaultBrain(), squares, 2, new EvalCache(1<<20));
+		assertEquals(alone.bestMove(low, stick, 8, null).score, sharing.bestMove(low, stick, 8, null).score, 0.0);
+
+		// nor across evaluators
+		DefaultBrain flat = new DefaultBrain() {
+			public double rateBoard(Board board) {
+				return board.getMaxHeight();
+			}
+		};
+		new ExpectimaxBrain(new DefaultBrain(), pieces, 2, shared).bestMove(low, stick, 8, null);
+		double expected = new ExpectimaxBrain(flat, pieces, 2, new EvalCache(1<<20)).bestMove(low, stick, 8, null).score;
+		assertEquals(expected, new ExpectimaxBrain(flat, pieces, 2, shared).bestMove(low, stick, 8, null).score, 0.0);
+	}
+
+	// With no lookahead the Monte Carlo brain is DefaultBrain; with playouts
+	// its moves depend on the seed but not on the number of workers
+	@Test
+	public void testMonteCarlo() {
+		java.util.concurrent.ForkJoinPool one = new java.util.concurrent.ForkJoinPool(1);
+		java.util.concurrent.ForkJoinPool four = new java.util.concurrent.ForkJoinPool(4);
+		try {
+			assertSameMoves(new MonteCarloBrain(new DefaultBrain(), pieces, four, 1, 0, 9), 10, 9);
+
+			MonteCarloBrain a = new MonteCarloBrain(new DefaultBrain(), pieces, one, 4, 2, 10);
+			MonteCarloBrain b = new MonteCarloBrain(new DefaultBrain(), pieces, four, 4, 2, 10);
+			b.setGreedy(false);
+			a.setGreedy(false);
+			Random random = new Random(11);
+			Board board = new Board(10, 24);
+			for (int n=0; n<40; n++) {
+				Piece piece = pieces[random.nextInt(pieces.length)];
+				Brain.Move first = a.bestMove(board, piece, 20, null);
+				Brain.Move second = b.bestMove(board, piece, 20, null);
+				if (first == null) {
+					assertEquals(null, second);
+					break;
+				}
+				assertSame(first.piece, second.piece);
+				assertEquals(first.x, second.x);
+				assertEquals(first.score, second.score, 0.0);
+				board.place(first.piece, first.x, first.y);
+				board.clearRows();
+				board.commit();
+			}
+			assertEquals(a.getPlayoutCount(), b.getPlayoutCount());
+			assertTrue(a.getPlayoutsPerSecond() > 0);
+		}
+		finally {
+			one.shutdown();
+			four.shutdown();
+		}
+	}
+
+	// The lowest average, over every next piece, of the best reply's score
+	private double bestExpected(Board board, Piece first, int limitHeight) {
+		double best = Double.MAX_VALUE;
+		Piece p = first;
+		do {
+			for (int x=0; x<=board.getWidth()-p.getWidth(); x++) {
+				int y = board.dropHeight(p, x);
+				if (y > limitHeight - p.getHeight()) continue;
+				board.checkpoint();
+				if (board.place(p, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+				board.commit();
+				double sum = 0;
+				for (Piece next : pieces) {
+					Brain.Move reply = serial.bestMove(board, next, limitHeight, null);
+					sum += (reply != null) ? reply.score : ExpectimaxBrain.DEAD;
+				}
+				best = Math.min(best, sum / pieces.length);
+				board.rollback();
+			}
+			p = p.fastRotation();
+		} while (p != first);
+		return best;
+	}
+
+	// The best score two pieces can reach, by trying every pair of plays
+	private double bestLine(Board board, Piece first, Piece second, int limitHeight) {
+		double best = Double.MAX_VALUE;
+		Piece p = first;
+		do {
+			for (int x=0; x<=board.getWidth()-p.getWidth(); x++) {
+				int y = board.dropHeight(p, x);
+				if (y > limitHeight - p.getHeight()) continue;
+				board.checkpoint();
+				if (board.place(p, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+				board.commit();
+				Brain.Move reply = serial.bestMove(board, second, limitHeight, null);
+				if (reply != null) best = Math.min(best, reply.score);
+				board.rollback();
+			}
+			p = p.fastRotation();
+		} while (p != first);
+		return best;
+	}
+}
\ No newline at end of file
@@ -12,9 +12,44 @@
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off DefaultBrain and override rateBoard().
+ 
+ Optionally an EvalCache can be installed, in which case boards are
+ looked up by their hash before calling rateBoard(). This is only valid
+ when rateBoard() depends on nothing but the blocks in the board.
 */
 
 public class DefaultBrain implements Brain {
+    private EvalCache cache;    // null unless caching has been turned on
+    
+    /**
+     Creates a brain that calls rateBoard() for every play.
+    */
+    public DefaultBrain() {
+        this(null);
+    }
+    
+    /**
+     Creates a brain that looks up board scores in the given cache
+     (which may be null for no caching).
+    */
+    public DefaultBrain(EvalCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     Installs the cache used by bestMove(), or null to stop caching.
+    */
+    public void setCache(EvalCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     Returns the installed cache, or null.
+    */
+    public EvalCache getCache() {
+        return cache;
+    }
+    
     /**
      Given a piece and a board, returns a move object that represents
      the best play for that piece, or returns null if no play is possible.
@@ -46,7 +81,7 @@ public class DefaultBrain implements Brain {
                     if (result <= Board.PLACE_ROW_FILLED) {
                         if (result == Board.PLACE_ROW_FILLED) board.clearRows();
                         
-                        double score = rateBoard(board);
+                        double score = scoreBoard(board);
                         
                         if (score<bestScore) {
                             bestScore = score;
@@ -75,6 +110,24 @@ public class DefaultBrain implements Brain {
     }
     
     
+    /**
+     Rates the board through the cache if there is one, otherwise
+     just calls rateBoard().
+    */
+    protected double scoreBoard(Board board) {
+        if (cache == null) return rateBoard(board);
+        
+        // boards of different sizes can hold the same blocks, so fold the size into the key
+        long key = board.getHash() ^ Board.zobristKey(-board.getWidth(), -board.getHeight());
+        double score = cache.lookup(key);
+        if (Double.isNaN(score)) {
+            score = rateBoard(board);
+            cache.put(key, score);
+        }
+        return score;
+    }
+    
+    
     /*
      A simple brain function.
      Given a board, produce a number that rates
@@ -86,23 +139,10 @@ public class DefaultBrain implements Brain {
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
         
-        int sumHeight = 0;
-        int holes = 0;
-        
-        // Count the holes, and sum up the heights
-        for (int x=0; x<width; x++) {
-            final int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-            
-            int y = colHeight - 2;    // addr of first possible hole
-            
-            while (y>=0) {
-                if  (!board.getGrid(x,y)) {
-                    holes++;
-                }
-                y--;
-            }
-        }
+        // The board keeps the sum of the heights and the hole count
+        // up to date as pieces are placed, so this is O(1)
+        int sumHeight = board.getSumHeight();
+        int holes = board.getHoles();
         
         double avgHeight = ((double)sumHeight)/width;
         
@@ -0,0 +1,170 @@
+// EvalCache.java
+
+/**
+ A fixed-size cache from 64-bit position keys (e.g. Board.getHash())
+ to board scores, used by DefaultBrain to skip rateBoard() for positions
+ it has already rated.
+
+ The table is primitive arrays only -- no boxing and no allocation after
+ construction. It is split into buckets of WAYS slots; a key can only
+ live in the bucket its hash picks. When a bucket is full, the entry to
+ evict is picked with the CLOCK (second chance) policy: every hit marks
+ its slot as referenced, and the bucket's clock hand sweeps past
+ referenced slots, clearing the mark, until it finds one that has not been
+ used since the last sweep.
+
+ Not thread safe -- give each thread its own cache.
+*/
+public class EvalCache {
+    // Number of slots per bucket
+    public static final int WAYS = 4;
+
+    // Approximate memory cost of one slot: key + value + state byte
+    public static final int BYTES_PER_ENTRY = 8 + 8 + 1;
+
+    private static final byte EMPTY = 0;
+    private static final byte PRESENT = 1;       // in use, not referenced since the clock last passed
+    private static final byte REFERENCED = 2;    // in use and hit since the clock last passed
+
+    private final long[] keys;
+    private final double[] values;
+    private final byte[] state;
+    private final byte[] hands;     // clock hand per bucket, 0..WAYS-1
+    private final int bucketMask;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private int size;
+
+    /**
+     Creates a cache that uses at most about budgetBytes of memory.
+     The capacity is rounded down to a power of two number of buckets
+     (at least one bucket).
+    */
+    public EvalCache(long budgetBytes) {
+        long slots = budgetBytes * WAYS / (BYTES_PER_ENTRY * WAYS + 1);    // +1 byte per bucket for its clock hand
+        long buckets = Math.max(1, slots / WAYS);
+        int bucketCount = (int)Long.highestOneBit(Math.min(buckets, 1<<26));
+        bucketMask = bucketCount - 1;
+        keys = new long[bucketCount * WAYS];
+        values = new double[bucketCount * WAYS];
+        state = new byte[bucketCount * WAYS];
+        hands = new byte[bucketCount];
+    }
+
+    /**
+     Returns the score stored for the key, or Double.NaN if it is not
+     in the cache -- so NaN scores are never stored, see put(). Counts
+     a hit or a miss.
+    */
+    public double lookup(long key) {
+        int base = bucket(key) * WAYS;
+        for (int i=base; i<base+WAYS; i++) {
+            if (state[i]!=EMPTY && keys[i]==key) {
+                state[i] = REFERENCED;
+                hits++;
+                return values[i];
+            }
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+    /**
+     Stores the score for the key, evicting an entry of the same bucket
+     if the bucket is full. A NaN score is not stored, as lookup() could
+     not tell it from a miss.
+    */
+    public void put(long key, double value) {
+        if (Double.isNaN(value)) return;
+        int bucket = bucket(key);
+        int base = bucket * WAYS;
+        int free = -1;
+        for (int i=base; i<base+WAYS; i++) {
+            if (state[i]==EMPTY) {
+                if (free<0) free = i;
+            }
+            else if (keys[i]==key) {    // already there, just refresh the value
+                values[i] = value;
+                return;
+            }
+        }
+
+        if (free<0) {
+            // CLOCK sweep: give referenced slots a second chance
+            int hand = hands[bucket];
+            while (state[base+hand]==REFERENCED) {
+                state[base+hand] = PRESENT;
+                hand = (hand+1) % WAYS;
+            }
+            free = base+hand;
+            hands[bucket] = (byte)((hand+1) % WAYS);
+            evictions++;
+        }
+        else {
+            size++;
+        }
+        keys[free] = key;
+        values[free] = value;
+        state[free] = PRESENT;
+    }
+
+    /**
+     Empties the cache and resets the counters.
+    */
+    public void clear() {
+        java.util.Arrays.fill(state, EMPTY);
+        java.util.Arrays.fill(hands, (byte)0);
+        size = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    // Spreads the key over the buckets -- Zobrist keys are already well mixed,
+    // but other callers' keys may not be.
+    private int bucket(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h>>>32) & bucketMask;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     Returns the fraction of lookups that were hits, or 0 before any lookup.
+    */
+    public double getHitRate() {
+        long total = hits + misses;
+        return (total==0) ? 0 : ((double)hits)/total;
+    }
+
+    /**
+     Returns the number of entries currently stored.
+    */
+    public int size() {
+        return size;
+    }
+
+    /**
+     Returns the maximum number of entries the cache can hold.
+    */
+    public int capacity() {
+        return keys.length;
+    }
+
+    public String toString() {
+        return "EvalCache size=" + size + "/" + capacity() + " hits=" + hits + " misses=" + misses
+            + " evictions=" + evictions + " hitRate=" + getHitRate();
+    }
+}
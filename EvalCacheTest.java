@@ -0,0 +1,63 @@
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/*
+  Unit tests for the EvalCache class.
+ */
+public class EvalCacheTest {
+	// A budget of one bucket: 4 slots and the bucket's clock hand
+	private static final long ONE_BUCKET = EvalCache.WAYS * EvalCache.BYTES_PER_ENTRY + 1;
+
+	// Stored scores come back, misses are NaN, and the counters follow
+	@Test
+	public void testLookup() {
+		EvalCache cache = new EvalCache(1<<16);
+		assertTrue(Double.isNaN(cache.lookup(7)));
+		cache.put(7, 1.5);
+		cache.put(-7, 0.0);
+		assertEquals(1.5, cache.lookup(7), 0.0);
+		assertEquals(0.0, cache.lookup(-7), 0.0);
+		cache.put(7, 2.5);		// refreshes, does not add
+		assertEquals(2.5, cache.lookup(7), 0.0);
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.75, cache.getHitRate(), 0.0);
+
+		// NaN would read back as a miss, so it is not stored
+		cache.put(8, Double.NaN);
+		assertEquals(2, cache.size());
+		assertTrue(Double.isNaN(cache.lookup(8)));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits());
+		assertEquals(0.0, cache.getHitRate(), 0.0);
+		assertTrue(Double.isNaN(cache.lookup(7)));
+	}
+
+	// A full bucket evicts the first entry the clock finds not hit since it last passed
+	@Test
+	public void testClock() {
+		EvalCache cache = new EvalCache(ONE_BUCKET);
+		assertEquals(EvalCache.WAYS, cache.capacity());
+		for (int k=1; k<=4; k++) cache.put(k, k);
+		cache.lookup(1);
+		cache.lookup(2);
+		cache.put(5, 5);		// 1 and 2 get a second chance, 3 goes
+		assertEquals(1, cache.getEvictions());
+		assertEquals(4, cache.size());
+		assertTrue(Double.isNaN(cache.lookup(3)));
+		assertEquals(1.0, cache.lookup(1), 0.0);
+		assertEquals(2.0, cache.lookup(2), 0.0);
+		assertEquals(4.0, cache.lookup(4), 0.0);
+		assertEquals(5.0, cache.lookup(5), 0.0);
+
+		// everything is referenced now, so the clock goes all the way round to 4
+		cache.put(6, 6);
+		assertEquals(2, cache.getEvictions());
+		assertTrue(Double.isNaN(cache.lookup(4)));
+		assertEquals(6.0, cache.lookup(6), 0.0);
+	}
+}
@@ -0,0 +1,322 @@
+// ExpectimaxBrain.java
+
+/**
+ A Brain that plans for the pieces it cannot see yet. JTetris draws every
+ piece uniformly from its piece set, so each play of the current piece is
+ rated by the expected outcome over every possible next piece, assuming
+ the best reply to each -- an expectimax search. With depth 2 that is one
+ chance layer: the average, over the next piece, of the best rated board
+ that piece can make. Deeper searches alternate chance and reply layers.
+ Depth 1 plays exactly like the evaluator.
+
+ Two things keep depth 2 cheap enough to run every piece:
+ <ul>
+ <li>Chance nodes are memoized in an EvalCache keyed by board hash,
+ remaining depth, height limit, piece set and evaluator, so positions
+ reached by different orders of play are only searched once -- also
+ across moves. The cache may be shared with other brains; only brains
+ with the same evaluator object read each other's values.
+ <li>Plays are searched best-first by their plain rating, and a chance
+ node stops as soon as its average is bound to lose to the best play
+ found so far, assuming each remaining piece does as well as
+ getMinScore() (0 for DefaultBrain's rateBoard()).
+ </ul>
+ The search runs on the caller's board with checkpoint()/rollback(),
+ so it makes no board copies. Not thread safe.
+*/
+public class ExpectimaxBrain implements Brain {
+    // Score of a piece that cannot be played anywhere -- the game is over
+    public static final double DEAD = 1e6;
+
+    private final DefaultBrain evaluator;
+    private final Piece[] pieces;       // the distribution: one of these, uniformly
+    private final EvalCache memo;
+    private int depth;
+    private double minScore;
+
+    // the plays of the current piece, in DefaultBrain's order
+    private Piece[] playPiece = new Piece[0];
+    private int[] playX = new int[0], playY = new int[0];
+    private double[] playScore = new double[0];
+    private int[] order = new int[0];     // play indexes, best first
+
+    // Folded into every memo key: the piece set and evaluator, and those plus the current limitHeight
+    private final long setKey;
+    private long searchKey;
+
+    private long nodes;         // boards rated since the counters were reset
+    private long pruned;        // chance nodes cut short
+
+    /**
+     Creates a depth 2 brain over the standard pieces, rating boards
+     with DefaultBrain and memoizing in 16MB.
+    */
+    public ExpectimaxBrain() {
+        this(new DefaultBrain(), Piece.getPieces(), 2, new EvalCache(16L<<20));
+    }
+
+    /**
+     Creates a brain that rates boards with the evaluator, expects the
+     next pieces to be drawn uniformly from the given first rotations,
+     searches the given number of pieces deep (counting the current one)
+     and memoizes in the given cache.
+    */
+    public ExpectimaxBrain(DefaultBrain evaluator, Piece[] pieces, int depth, EvalCache memo) {
+        this.evaluator = evaluator;
+        this.pieces = pieces.clone();
+        this.memo = memo;
+        // rows from Integer.MIN_VALUE up are ones no board block or size fold uses
+        this.setKey = Board.zobristKey(java.util.Arrays.hashCode(this.pieces), Integer.MIN_VALUE)
+            ^ Board.zobristKey(System.identityHashCode(evaluator), Integer.MIN_VALUE + 2);
+        setDepth(depth);
+    }
+
+    public void setDepth(int depth) {
+        if (depth < 1) throw new RuntimeException("Depth must be at least 1");
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     Sets the lowest score the evaluator can ever give, used for pruning.
+     A higher value prunes more; a value above the true minimum can
+     change the move chosen.
+    */
+    public void setMinScore(double minScore) {
+        this.minScore = minScore;
+    }
+
+    public double getMinScore() {
+        return minScore;
+    }
+
+    /**
+     Given a piece and a board, returns a move object that represents
+     the best play for that piece, or returns null if no play is possible.
+     move.score is the expected score of the play.
+     See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        board.commit();
+        searchKey = setKey ^ Board.zobristKey(limitHeight, Integer.MIN_VALUE + 1);
+
+        // rate every play plainly, in DefaultBrain's order
+        int count = 0;
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight()+1;
+            final int xBound = board.getWidth() - current.getWidth()+1;
+            for (int x = 0; x<xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y<yBound) {    // piece does not stick up too far
+                    int result = board.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                        if (count == playPiece.length) grow();
+                        nodes++;
+                        playScore[count] = evaluator.scoreBoard(board);
+                        playPiece[count] = current;
+                        playX[count] = x;
+                        playY[count] = y;
+                        order[count] = count;
+                        count++;
+                    }
+                    board.undo();
+                }
+            }
+            current = current.fastRotation();
+        } while (current != piece);
+        if (count == 0) return(null);    // could not find a play at all!
+
+        // search the most promising plays first, so the bound gets tight early --
+        // an insertion sort, stable so equal scores keep DefaultBrain's order
+        for (int k=1; k<count; k++) {
+            int i = order[k];
+            int j = k;
+            while (j > 0 && playScore[order[j-1]] > playScore[i]) {
+                order[j] = order[j-1];
+                j--;
+            }
+            order[j] = i;
+        }
+
+        double bestScore = Double.POSITIVE_INFINITY;
+        int best = -1;
+        for (int k=0; k<count; k++) {
+            int i = order[k];
+            double score = playScore[i];
+            if (depth > 1) {
+                board.checkpoint();
+                if (board.place(playPiece[i], playX[i], playY[i]) == Board.PLACE_ROW_FILLED) board.clearRows();
+                board.commit();
+                score = chance(board, depth-1, bestScore, limitHeight);
+                board.rollback();
+            }
+            // equal scores go to the play DefaultBrain's order has first
+            if (score < bestScore || (score == bestScore && i < best)) {
+                bestScore = score;
+                best = i;
+            }
+        }
+
+        if (move==null) move = new Brain.Move();
+        move.piece = playPiece[best];
+        move.x = playX[best];
+        move.y = playY[best];
+        move.score = bestScore;
+        return(move);
+    }
+
+    /*
+     The expected score of the committed board when "remaining" more pieces
+     are drawn and each is given its best reply. If that is bound to be more
+     than "bound", may stop early and return some value above bound instead
+     (not memoized).
+    */
+    private double chance(Board board, int remaining, double bound, int limitHeight) {
+        // boards of different sizes can hold the same blocks, so fold the size in with the depth;
+        // the same board is worth something else under another height limit or piece set
+        long key = board.getHash() ^ searchKey ^ Board.zobristKey(remaining - board.getWidth()*64, -board.getHeight());
+        double value = memo.lookup(key);
+        if (!Double.isNaN(value)) return value;
+
+        int n = pieces.length;
+        double sum = 0;
+        for (int i=0; i<n; i++) {
+            sum += reply(board, pieces[i], remaining, limitHeight);
+            double atLeast = (sum + (n-i-1)*minScore) / n;
+            if (atLeast > bound) {
+                pruned++;
+                return atLeast;
+            }
+        }
+        value = sum / n;
+        memo.put(key, value);
+        return value;
+    }
+
+    /*
+     The best score the piece can reach from the committed board, with
+     "remaining" pieces (this one included) still to come. DEAD if it
+     cannot be played.
+    */
+    private double reply(Board board, Piece piece, int remaining, int limitHeight) {
+        double best = DEAD;
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight()+1;
+            final int xBound = board.getWidth() - current.getWidth()+1;
+            for (int x = 0; x<xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y<yBound) {
+                    board.checkpoint();
+                    int result = board.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                        double score;
+                        if (remaining == 1) {
+                            nodes++;
+                            score = evaluator.scoreBoard(board);
+                        }
+                        else {
+                            board.commit();
+                            score = chance(board, remaining-1, best, limitHeight);    // only has to beat the best reply so far
+                        }
+                        if (score < best) best = score;
+                    }
+                    board.rollback();
+                }
+            }
+            current = current.fastRotation();
+        } while (current != piece);
+        return best;
+    }
+
+    private void grow() {
+        int size = Math.max(64, playPiece.length*2);
+        playPiece = java.util.Arrays.copyOf(playPiece, size);
+        playX = java.util.Arrays.copyOf(playX, size);
+        playY = java.util.Arrays.copyOf(playY, size);
+        playScore = java.util.Arrays.copyOf(playScore, size);
+        order = java.util.Arrays.copyOf(order, size);
+    }
+
+    /**
+     Returns the number of boards rated since the counters were reset.
+    */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     Returns the number of chance nodes cut short by the bound since the
+     counters were reset.
+    */
+    public long getPruned() {
+        return pruned;
+    }
+
+    public void resetCounters() {
+        nodes = 0;
+        pruned = 0;
+    }
+
+    public EvalCache getMemo() {
+        return memo;
+    }
+
+    /**
+     Plays the same piece sequences with DefaultBrain and with expectimax,
+     and prints the pieces survived, the score (as JTetris counts it) and
+     the time per piece of each.
+     Usage: java ExpectimaxBrain [depth] [games] [piece limit]
+    */
+    public static void main(String[] args) {
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+        int games = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int limit = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+
+        ExpectimaxBrain expectimax = new ExpectimaxBrain();
+        expectimax.setDepth(depth);
+        Brain[] brains = {new DefaultBrain(), expectimax};
+        String[] names = {"DefaultBrain", "Expectimax depth " + depth};
+        for (int b=0; b<brains.length; b++) {
+            long pieces = 0, score = 0, nanos = 0;
+            for (int game=0; game<games; game++) {
+                long start = System.nanoTime();
+                long[] result = play(brains[b], game, limit);
+                nanos += System.nanoTime() - start;
+                pieces += result[0];
+                score += result[1];
+            }
+            System.out.println(names[b] + ": " + (pieces / games) + " pieces, score " + (score / games)
+                + ", " + (nanos / 1000 / Math.max(1, pieces)) + " us/piece");
+        }
+        System.out.println("memo: " + expectimax.getMemo() + ", " + expectimax.getPruned() + " chance nodes pruned");
+    }
+
+    /*
+     Plays one standard game and returns {pieces played, score}.
+    */
+    private static long[] play(Brain brain, long seed, int limit) {
+        java.util.Random random = new java.util.Random(seed);
+        Piece[] pieces = Piece.getPieces();
+        Board board = new Board(JTetris.WIDTH, JTetris.HEIGHT + JTetris.TOP_SPACE);
+        long score = 0;
+        int count;
+        for (count=0; count<limit; count++) {
+            Brain.Move move = brain.bestMove(board, pieces[random.nextInt(pieces.length)], JTetris.HEIGHT, null);
+            if (move == null) break;
+            score++;
+            board.place(move.piece, move.x, move.y);
+            int cleared = board.clearRows();
+            score += (cleared == 1) ? 5 : (cleared == 2) ? 10 : (cleared == 3) ? 20 : (cleared == 4) ? 40 : (cleared > 4) ? 50 : 0;
+            board.commit();
+            if (board.getMaxHeight() > JTetris.HEIGHT) break;
+        }
+        return new long[] {count, score};
+    }
+}
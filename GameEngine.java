@@ -0,0 +1,467 @@
+// GameEngine.java
+
+import java.util.Random;
+
+/**
+ The rules of JTetris without the window: a board, the falling piece,
+ the verbs that move it, landing, row clearing, scoring and game over.
+ JTetris and JBrainTetris play through an engine and only draw its board;
+ with no Swing anywhere, games can also be simulated headless as fast as
+ the board allows.
+
+ Pieces come from a PieceSource. A new piece spawns centered at the top,
+ in the TOP_SPACE rows above the playing area. Each tick() moves it by one
+ verb; a piece lands when a DOWN tick is blocked and the tick before was
+ not a successful move (so a player can still slide a piece along the
+ floor). Landing clears rows, scoring 5, 10, 20, 40 for 1-4 rows (50 for
+ more) on top of the 1 point every new piece scores, and the game is over
+ if the stack then sticks up into the TOP_SPACE rows.
+
+ Typical client code looks like...
+ <pre>
+ GameEngine game = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT,
+     new GameEngine.RandomSource(Piece.getPieces(), seed));
+ game.start();
+ while (game.isGameOn()) {
+     game.tick(GameEngine.DOWN);	// or LEFT, RIGHT, ROTATE, DROP
+ }
+ System.out.println(game.getCount() + " pieces, score " + game.getScore());
+ </pre>
+ Brains can skip the verbs and play a whole move with playMove().
+ tick() and playMove() allocate nothing, and start() only allocates for
+ the first game.
+*/
+public class GameEngine {
+	// Extra rows at the top for pieces to start.
+	// If a piece is sticking up into this area
+	// when it has landed -- game over!
+	public static final int TOP_SPACE = 4;
+
+	// The verbs, as JTetris numbers them
+	public static final int ROTATE = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DROP = 3;
+	public static final int DOWN = 4;
+
+	// What a tick() did
+	public static final int TICK_MOVED = 0;		// the piece moved
+	public static final int TICK_BLOCKED = 1;	// the piece could not move, and stays put
+	public static final int TICK_LANDED = 2;	// the piece landed and the next one is in play
+	public static final int TICK_OVER = 3;		// the game is over (or was already)
+
+	/**
+	 The way JTetris picks pieces: uniformly at random from a set of first
+	 rotations, with a seeded java.util.Random -- seed 0 gives the JTetris
+	 test sequence.
+	*/
+	public static class RandomSource implements PieceSource {
+		private final Piece[] pieces;
+		private final Random random;
+
+		public RandomSource(Piece[] pieces, long seed) {
+			this.pieces = pieces.clone();
+			this.random = new Random(seed);
+		}
+
+		public Piece nextPiece() {
+			return pieces[(int) (pieces.length * random.nextDouble())];
+		}
+	}
+
+	private final int height;		// of the playing area, without TOP_SPACE
+	private final Board board;
+	private final Board empty;		// a blank board of the same size, to start games from
+	private PieceSource source;
+	private int pieceLimit;			// stop after this many pieces, 0 for no limit
+
+	// The current piece in play or null
+	private Piece currentPiece;
+	private int currentX;
+	private int currentY;
+	private boolean moved;			// did the last tick move the piece other than DOWN
+
+	// The position the current tick is trying -- set by computeNewPosition
+	private Piece newPiece;
+	private int newX;
+	private int newY;
+
+	// State of the game
+	private boolean gameOn;
+	private int count;				// how many pieces played so far
+	private int score;
+	private int rowsCleared;		// total over the game
+	private int lastCleared;		// by the last piece to land
+
+	// Where the last piece landed
+	private Piece lastPiece;
+	private int lastX;
+	private int lastY;
+
+	/**
+	 Creates an engine for a playing area of the given size (the board has
+	 TOP_SPACE more rows) that takes its pieces from the source.
+	 Call start() to begin a game.
+	*/
+	public GameEngine(int width, int height, PieceSource source) {
+		this.height = height;
+		this.board = new Board(width, height + TOP_SPACE);
+		this.empty = new Board(width, height + TOP_SPACE);
+		this.source = source;
+	}
+
+	/**
+	 Sets the source the following pieces come from.
+	*/
+	public void setPieceSource(PieceSource source) {
+		this.source = source;
+	}
+
+	/**
+	 Ends the game once this many pieces have been played, as the JTetris
+	 test mode does with 100. 0, the default, plays until the game is lost.
+	*/
+	public void setPieceLimit(int pieceLimit) {
+		this.pieceLimit = pieceLimit;
+	}
+
+	/**
+	 Clears the board and the counters and puts the first piece in play.
+	*/
+	public void start() {
+		board.copyFrom(empty);
+		currentPiece = null;
+		moved = false;
+		count = 0;
+		score = 0;
+		rowsCleared = 0;
+		lastCleared = 0;
+		lastPiece = null;
+		gameOn = true;
+		addNewPiece();
+	}
+
+	/**
+	 Ends the game.
+	*/
+	public void stop() {
+		gameOn = false;
+	}
+
+	/**
+	 Given a piece, tries to install that piece into the board and set it
+	 to be the current piece. If the placement is not possible, then the
+	 placement is undone, and the board is not changed. The board should be
+	 in the committed state when this is called.
+	 Returns the same error code as Board.place().
+	*/
+	private int setCurrent(Piece piece, int x, int y) {
+		int result = board.place(piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) {
+			currentPiece = piece;
+			currentX = x;
+			currentY = y;
+		}
+		else {
+			board.undo();
+		}
+
+		return(result);
+	}
+
+	/*
+	 Puts a new piece at the top of the board.
+	 Ends the game if it's not possible, or if the piece limit is reached.
+	*/
+	private void addNewPiece() {
+		count++;
+		score++;
+
+		if (pieceLimit > 0 && count == pieceLimit+1) {
+			stop();
+			return;
+		}
+
+		// commit things the way they are
+		board.commit();
+		currentPiece = null;
+
+		Piece piece = source.nextPiece();
+
+		// Center it up at the top
+		int px = (board.getWidth() - piece.getWidth())/2;
+		int py = board.getHeight() - piece.getHeight();
+
+		if (setCurrent(piece, px, py) > Board.PLACE_ROW_FILLED) {
+			stop();
+		}
+	}
+
+	/*
+	 Figures a new position for the current piece based on the given verb,
+	 into newPiece, newX and newY. The piece should not be in the board at
+	 the moment, so dropHeight() does not hit the piece itself.
+	*/
+	private void computeNewPosition(int verb) {
+		newPiece = currentPiece;
+		newX = currentX;
+		newY = currentY;
+
+		switch (verb) {
+			case LEFT: newX--; break;
+
+			case RIGHT: newX++; break;
+
+			case ROTATE:
+				newPiece = newPiece.fastRotation();
+
+				// make the piece appear to rotate about its center
+				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
+				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
+				break;
+
+			case DOWN: newY--; break;
+
+			case DROP:
+				newY = board.dropHeight(newPiece, newX);
+
+				// avoid the drop moving the piece up
+				if (newY > currentY) {
+					newY = currentY;
+				}
+				break;
+
+			default:
+				throw new RuntimeException("Bad verb");
+		}
+	}
+
+	/**
+	 Moves the current piece by one verb: LEFT RIGHT ROTATE DROP for the
+	 player's moves, DOWN for the timer moving it down one row.
+	 Returns TICK_MOVED, TICK_BLOCKED, TICK_LANDED or TICK_OVER.
+	*/
+	public int tick(int verb) {
+		if (!gameOn) return TICK_OVER;
+
+		if (currentPiece != null) {
+			board.undo();	// remove the piece from its old position
+		}
+
+		computeNewPosition(verb);
+
+		// try out the new position (rolls back if it doesn't work)
+		int result = setCurrent(newPiece, newX, newY);
+		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+
+		// if it didn't work, put it back the way it was
+		if (failed && currentPiece != null) {
+			board.place(currentPiece, currentX, currentY);
+		}
+
+		/*
+		 A piece has landed if this move hits something on its DOWN verb
+		 and the previous verb was not a successful move -- then the
+		 previous position is where it lands.
+		*/
+		int status = failed ? TICK_BLOCKED : TICK_MOVED;
+		if (failed && verb==DOWN && !moved) {
+			status = land();
+		}
+
+		// Note if the player made a successful non-DOWN move --
+		// used to detect if the piece has landed on the next tick()
+		moved = (!failed && verb!=DOWN);
+		return status;
+	}
+
+	/*
+	 The current piece is in the board where it lands: clears rows, scores
+	 them, and either ends the game or puts the next piece in play.
+	 Returns TICK_LANDED or TICK_OVER.
+	*/
+	private int land() {
+		lastPiece = currentPiece;
+		lastX = currentX;
+		lastY = currentY;
+		int cleared = board.clearRows();
+		board.commit();		// the landed piece stays, even if the game ends here
+		lastCleared = cleared;
+		rowsCleared += cleared;
+		switch (cleared) {
+			case 0: break;
+			case 1: score += 5; break;
+			case 2: score += 10; break;
+			case 3: score += 20; break;
+			case 4: score += 40; break;
+			default: score += 50;	// could happen with non-standard pieces
+		}
+
+		// if the board is too tall, we've lost
+		if (board.getMaxHeight() > height) {
+			stop();
+		}
+		else {
+			addNewPiece();
+		}
+		return gameOn ? TICK_LANDED : TICK_OVER;
+	}
+
+	/**
+	 Plays the current piece straight to its resting place: drops the given
+	 rotation of it at column x, then lands it as a DOWN tick would. Meant
+	 for brains (see Brain.Move), so it does not check that the verbs could
+	 have got the piece there, only that the rotation is one of the current
+	 piece's and that it fits in the board.
+	 Returns TICK_LANDED or TICK_OVER, or TICK_BLOCKED if the play is not
+	 possible, in which case nothing changes.
+	*/
+	public int playMove(Piece piece, int x) {
+		if (!gameOn) return TICK_OVER;
+		if (!isRotationOf(piece, currentPiece)) return TICK_BLOCKED;
+		if (x < 0 || x + piece.getWidth() > board.getWidth()) return TICK_BLOCKED;
+
+		board.undo();
+		int y = board.dropHeight(piece, x);
+		if (setCurrent(piece, x, y) > Board.PLACE_ROW_FILLED) {
+			board.place(currentPiece, currentX, currentY);
+			return TICK_BLOCKED;
+		}
+		moved = false;
+		return land();
+	}
+
+	// Is piece one of the rotations of current?
+	private static boolean isRotationOf(Piece piece, Piece current) {
+		Piece p = current;
+		do {
+			if (p == piece) return true;
+			p = p.fastRotation();
+		} while (p != current);
+		return false;
+	}
+
+	/**
+	 Returns the board, with the current piece placed in it (uncommitted).
+	 Brains should undo() it before planning, as JBrainTetris does.
+	*/
+	public Board getBoard() {
+		return board;
+	}
+
+	public Piece getCurrentPiece() {
+		return currentPiece;
+	}
+
+	public int getCurrentX() {
+		return currentX;
+	}
+
+	public int getCurrentY() {
+		return currentY;
+	}
+
+	/**
+	 Returns the height of the playing area -- the limitHeight to pass
+	 to Brain.bestMove().
+	*/
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean isGameOn() {
+		return gameOn;
+	}
+
+	/**
+	 Returns how many pieces have been put in play, the current one included.
+	*/
+	public int getCount() {
+		return count;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 Returns the number of rows cleared this game.
+	*/
+	public int getRowsCleared() {
+		return rowsCleared;
+	}
+
+	/**
+	 Returns the number of rows cleared by the last piece to land.
+	*/
+	public int getLastCleared() {
+		return lastCleared;
+	}
+
+	/**
+	 Returns the rotation the last piece to land landed in, or null if
+	 none has landed this game.
+	*/
+	public Piece getLastPiece() {
+		return lastPiece;
+	}
+
+	public int getLastX() {
+		return lastX;
+	}
+
+	public int getLastY() {
+		return lastY;
+	}
+
+	/**
+	 Plays random games headless and prints the pieces and ticks per second:
+	 once driving every piece with verbs (rotate, slide, DROP, DOWN) and once
+	 with playMove().
+	 Usage: java GameEngine [pieces]
+	*/
+	public static void main(String[] args) {
+		int total = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+		Random random = new Random(1);
+		GameEngine game = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, new RandomSource(Piece.getPieces(), 1));
+
+		for (int round=0; round<2; round++) {	// the first round warms up
+			long start = System.nanoTime();
+			long pieces = 0, ticks = 0, games = 0;
+			game.start();
+			while (pieces < total) {
+				if (!game.isGameOn()) {
+					games++;
+					game.start();
+				}
+				for (int r=random.nextInt(4); r>0; r--, ticks++) game.tick(ROTATE);
+				int x = random.nextInt(JTetris.WIDTH);
+				int verb = (game.getCurrentX() < x) ? RIGHT : LEFT;
+				while (game.getCurrentX() != x && game.tick(verb) == TICK_MOVED) ticks++;
+				game.tick(DROP);
+				ticks += 2;
+				while (game.tick(DOWN) < TICK_LANDED) ticks++;	// the first DOWN after a move never lands
+				pieces++;
+			}
+			long mid = System.nanoTime();
+
+			long played = 0;
+			game.start();
+			while (played < total) {
+				if (!game.isGameOn()) game.start();
+				Piece piece = game.getCurrentPiece();
+				for (int r=random.nextInt(4); r>0; r--) piece = piece.fastRotation();
+				game.playMove(piece, random.nextInt(JTetris.WIDTH - piece.getWidth() + 1));
+				played++;
+			}
+			long end = System.nanoTime();
+
+			if (round == 1) {
+				System.out.println("verbs:    " + (long)(pieces * 1e9 / (mid - start)) + " pieces/sec, "
+					+ (long)(ticks * 1e9 / (mid - start)) + " ticks/sec over " + games + " games");
+				System.out.println("playMove: " + (long)(played * 1e9 / (end - mid)) + " pieces/sec");
+			}
+		}
+	}
+}
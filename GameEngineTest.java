@@ -0,0 +1,103 @@
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/*
+  Unit tests for the GameEngine class.
+ */
+public class GameEngineTest {
+	private Piece[] pieces;
+	private GameEngine game;
+
+	// Every piece is a square
+	private PieceSource squares = new PieceSource() {
+		public Piece nextPiece() {
+			return pieces[Piece.SQUARE];
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+		game = new GameEngine(4, 4, squares);
+		game.start();
+	}
+
+	// A piece only lands on a blocked DOWN that follows a DOWN,
+	// and clearing two rows scores 10
+	@Test
+	public void testLanding() {
+		assertEquals(1, game.getCurrentX());
+		assertEquals(6, game.getCurrentY());
+		assertEquals(1, game.getCount());
+
+		assertEquals(GameEngine.TICK_MOVED, game.tick(GameEngine.LEFT));
+		assertEquals(GameEngine.TICK_BLOCKED, game.tick(GameEngine.LEFT));
+		assertEquals(GameEngine.TICK_MOVED, game.tick(GameEngine.DROP));
+		assertEquals(0, game.getCurrentY());
+		assertEquals(GameEngine.TICK_MOVED, game.tick(GameEngine.ROTATE));	// a square rotates onto itself
+		assertEquals(GameEngine.TICK_BLOCKED, game.tick(GameEngine.DOWN));	// just moved, so it can still slide
+		assertEquals(GameEngine.TICK_LANDED, game.tick(GameEngine.DOWN));
+		assertEquals(2, game.getCount());
+		assertEquals(2, game.getScore());
+		assertEquals(6, game.getCurrentY());
+
+		game.tick(GameEngine.RIGHT);
+		game.tick(GameEngine.DROP);
+		game.tick(GameEngine.DOWN);
+		assertEquals(GameEngine.TICK_LANDED, game.tick(GameEngine.DOWN));
+		assertEquals(2, game.getLastCleared());
+		assertEquals(2, game.getRowsCleared());
+		assertEquals(3, game.getCount());
+		assertEquals(13, game.getScore());
+
+		// only the new piece is left, up in the top space
+		game.getBoard().undo();
+		assertEquals(0, game.getBoard().getMaxHeight());
+	}
+
+	// The game is over once the stack reaches into the top space
+	@Test
+	public void testGameOver() {
+		assertEquals(GameEngine.TICK_LANDED, game.playMove(pieces[Piece.SQUARE], 0));
+		assertEquals(GameEngine.TICK_LANDED, game.playMove(pieces[Piece.SQUARE], 0));
+		assertEquals(GameEngine.TICK_BLOCKED, game.playMove(pieces[Piece.STICK], 0));	// not the current piece
+		assertEquals(GameEngine.TICK_BLOCKED, game.playMove(pieces[Piece.SQUARE], 3));	// off the board
+		assertTrue(game.isGameOn());
+		assertEquals(GameEngine.TICK_OVER, game.playMove(pieces[Piece.SQUARE], 0));
+		assertFalse(game.isGameOn());
+		assertEquals(3, game.getCount());
+		assertEquals(GameEngine.TICK_OVER, game.tick(GameEngine.DOWN));
+
+		// start() begins again on an empty board
+		game.start();
+		assertTrue(game.isGameOn());
+		assertEquals(1, game.getCount());
+		assertEquals(1, game.getScore());
+		game.getBoard().undo();
+		assertEquals(0, game.getBoard().getMaxHeight());
+	}
+
+	// The piece limit ends the game like the JTetris test mode, and
+	// a random source with the same seed gives the same game
+	@Test
+	public void testLimitAndSource() {
+		game.setPieceLimit(2);
+		game.playMove(pieces[Piece.SQUARE], 0);
+		assertTrue(game.isGameOn());
+		assertEquals(GameEngine.TICK_OVER, game.playMove(pieces[Piece.SQUARE], 2));
+		assertEquals(3, game.getCount());
+
+		GameEngine a = new GameEngine(10, 20, new GameEngine.RandomSource(pieces, 5));
+		GameEngine b = new GameEngine(10, 20, new GameEngine.RandomSource(pieces, 5));
+		a.start();
+		b.start();
+		for (int n=0; n<500 && a.isGameOn(); n++) {
+			int verb = n % 5;
+			assertEquals(a.tick(verb), b.tick(verb));
+			assertSame(a.getCurrentPiece(), b.getCurrentPiece());
+		}
+		assertEquals(a.getScore(), b.getScore());
+		assertEquals(a.getBoard(), b.getBoard());
+	}
+}
@@ -6,7 +6,6 @@
 
 */
 import java.awt.Dimension;
-import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
@@ -182,104 +181,33 @@ public class JBrainTetris extends JTetris{
 	 and the timer calls it with the verb DOWN to move
 	 the piece down one square.
 
-	 Before this is called, the piece is at some location in the board.
-	 This advances the piece to be at its next location.
-	 
-	 Overriden by the brain when it plays.
+	 In brain mode, each DOWN from the timer is the brain's chance
+	 to make 1 rotation and 1 lateral movement towards its best move
+	 before the piece falls. The rules are all JTetris's (see GameEngine).
 	*/
 	@Override
 	public void tick(int verb) {
 		if (!gameOn) return;
 		
-		if (currentPiece != null) {
-			board.undo();	// remove the piece from its old position
-		}
-		
 		if(brainmode.isSelected() && verb == DOWN){		//check if brain mode is active and we were ticking DOWN...if so, then...			
-				
+			board.undo();	// plan without the falling piece in the board
+			
  			//have your Brain calculate the best move and return it in a Move instance.
 			goodMove = dBrain.bestMove(board, currentPiece, HEIGHT, goodMove) ;
 			if(goodMove!=null){
-				
-		  //when the timer called for downward movement, it is the brain's chance to make 1 rotation and 1 lateral movement.
 				if(goodMove.piece != currentPiece){
-					currentPiece = currentPiece.fastRotation();   //use a rotation if your piece isn't the optimal rotated version
+					super.tick(ROTATE);   //use a rotation if your piece isn't the optimal rotated version
 				}
 				if(currentX<goodMove.x){  //if we are left of the optimal x position...
-					tick(RIGHT);          //move either LEFT or RIGHT towards the optimal x-location
+					super.tick(RIGHT);          //move either LEFT or RIGHT towards the optimal x-location
 				}
 				else if(currentX>goodMove.x){
-					tick(LEFT);
+					super.tick(LEFT);
 				}
-				else if(currentX == goodMove.x){
-					//no left/right movement, stay where you are. 
-				}					
 			}
 		}
 		
-		if (currentPiece != null) {
-			board.undo();	// remove the piece from its old position
-		}
-
-		// Sets the newXXX ivars
-		computeNewPosition(verb);
-		
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
-		
-		// if row clearing is going to happen, draw the
-		// whole board so the green row shows up
-		if (result ==  Board.PLACE_ROW_FILLED) {
-			repaint();
-		}
-		
-
-		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-		
-		// if it didn't work, put it back the way it was
-		if (failed) {
-			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-	
-		/*
-		 How to detect when a piece has landed:
-		 if this move hits something on its DOWN verb,
-		 and the previous verb was also DOWN (i.e. the player was not
-		 still moving it),	then the previous position must be the correct
-		 "landed" position, so we're done with the falling of this piece.
-		*/
-		if (failed && verb==DOWN && !moved) {	// it's landed
-		
-			int cleared = board.clearRows();
-			if (cleared > 0) {
-				// score goes up by 5, 10, 20, 40 for row clearing
-				// clearing 4 gets you a beep!
-				switch (cleared) {
-					case 1: score += 5;	 break;
-					case 2: score += 10;  break;
-					case 3: score += 20;  break;
-					case 4: score += 40; Toolkit.getDefaultToolkit().beep(); break;
-					default: score += 50;  // could happen with non-standard pieces
-				}
-				updateCounters();
-				repaint();	// repaint to show the result of the row clearing
-			}
-			
-			
-			// if the board is too tall, we've lost
-			if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-						
-				stopGame();
-			}
-			// Otherwise add a new piece and keep playing
-			else {
-				addNewPiece();   //this only happens if verb was DOWN and hit a floor, so we can call LEFT and RIGHT without worrying about spawning a new piece...
-			}
-		}
-		// Note if the player made a successful non-DOWN move --
-		// used to detect if the piece has landed on the next tick()
-		moved = (!failed && verb!=DOWN);
+		super.tick(verb);
 	}
 
 	
@@ -25,14 +25,16 @@ import java.awt.Toolkit;
 
 /*
  Implementation notes:
+ -The rules -- moving, landing, clearing, scoring and
+ game over -- are played by a GameEngine, which takes its
+ pieces from pickNextPiece(). JTetris draws its board.
  -The "currentPiece" points to a piece that is
  currently falling, or is null when there is no piece.
  -tick() moves the current piece
  -a timer object calls tick(DOWN) periodically
  -keystrokes call tick() with LEFT, RIGHT, etc.
- -Board.undo() is used to remove the piece from its
- old position and then Board.place() is used to install
- the piece in its new position.
+ -after each tick, updateState() copies the engine's
+ piece and counters into the fields below.
 */
 
 public class JTetris extends JComponent {
@@ -43,7 +45,7 @@ public class JTetris extends JComponent {
 	// Extra blocks at the top for pieces to start.
 	// If a piece is sticking up into this area
 	// when it has landed -- game over!
-	public static final int TOP_SPACE = 4;
+	public static final int TOP_SPACE = GameEngine.TOP_SPACE;
 	
 	// When this is true, plays a fixed sequence of 100 pieces
 	protected boolean testMode = false;
@@ -54,7 +56,8 @@ public class JTetris extends JComponent {
 	protected boolean DRAW_OPTIMIZE = false;
 	
 	// Board data structures
-	protected Board board;
+	protected GameEngine engine;	// plays the rules
+	protected Board board;			// the engine's board
 	protected Piece[] pieces;
 	
 	
@@ -62,21 +65,13 @@ public class JTetris extends JComponent {
 	protected Piece currentPiece;
 	protected int currentX;
 	protected int currentY;
-	protected boolean moved;	// did the player move the piece
-	
-	
-	// The piece we're thinking about playing
-	// -- set by computeNewPosition
-	// (storing this in ivars is slightly questionable style)
-	protected Piece newPiece;
-	protected int newX;
-	protected int newY;
 	
 	// State of the game
 	protected boolean gameOn;	// true if we are playing
 	protected int count;		 // how many pieces played so far
 	protected long startTime;	// used to measure elapsed time
 	protected Random random;	 // the random generator for new pieces
+	protected long seed;		// its seed, so a game can be replayed -- see GameEngine.RandomSource
 	
 	
 	// Controls
@@ -105,8 +100,13 @@ public class JTetris extends JComponent {
 				(HEIGHT+TOP_SPACE)*pixels+2));
 		gameOn = false;
 		
-		pieces = Piece.getPieces();
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		pieces = loadPieces();
+		engine = new GameEngine(WIDTH, HEIGHT, new PieceSource() {
+			public Piece nextPiece() {
+				return pickNextPiece();
+			}
+		});
+		board = engine.getBoard();
 
 
 		/*
@@ -204,26 +204,29 @@ public class JTetris extends JComponent {
 	 so the game is happening.
 	*/
 	public void startGame() {
-		// cheap way to reset the board state
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
-		
-		// draw the new board state once
-		repaint();
-		
-		count = 0;
-		score = 0;
-		updateCounters();
 		gameOn = true;
 		
 		// Set mode based on checkbox at start of game
 		testMode = testButton.isSelected();
+		engine.setPieceLimit(testMode ? TEST_LIMIT : 0);
 		
-		if (testMode) random = new Random(0);	// same seq every time
-		else random = new Random(); // diff seq each game
+		if (testMode) seed = 0;	// same seq every time
+		else seed = System.nanoTime(); // diff seq each game
+		random = new Random(seed);
 		
 		enableButtons();
 		timeLabel.setText(" ");
-		addNewPiece();
+		engine.start();		// clears the board and puts the first piece in play
+		updateState();
+		updateCounters();
+		
+		// draw the new board state once
+		repaint();
+		
+		if (!engine.isGameOn()) {
+			stopGame();
+			return;
+		}
 		timer.start();
 		startTime = System.currentTimeMillis();
 	}
@@ -243,6 +246,7 @@ public class JTetris extends JComponent {
 	*/
 	public void stopGame() {
 		gameOn = false;
+		engine.stop();
 		enableButtons();
 		timer.stop();
 		
@@ -253,37 +257,27 @@ public class JTetris extends JComponent {
 	
 	
 	/**
-	 Given a piece, tries to install that piece
-	 into the board and set it to be the current piece.
-	 Does the necessary repaints.
-	 If the placement is not possible, then the placement
-	 is undone, and the board is not changed. The board
-	 should be in the committed state when this is called.
-	 Returns the same error code as Board.place().
+	 Returns the pieces to play with: the standard 7, or the piece set
+	 named by the "tetris.pieces" system property -- a text definition or
+	 binary catalog file, see PieceSetLoader. e.g.
+	 java -Dtetris.pieces=pentominoes.txt JTetris
 	*/
-	public int setCurrent(Piece piece, int x, int y) {
-		int result = board.place(piece, x, y);
-		
-		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
-			// repaint the rect where it used to be
-			if (currentPiece != null) repaintPiece(currentPiece, currentX, currentY);
-			currentPiece = piece;
-			currentX = x;
-			currentY = y;
-			// repaint the rect where it is now
-			repaintPiece(currentPiece, currentX, currentY);
+	protected Piece[] loadPieces() {
+		String path = System.getProperty("tetris.pieces");
+		if (path == null) return Piece.getPieces();
+		try {
+			return PieceSetLoader.load(path).getRoots();
 		}
-		else {
-			board.undo();
+		catch (java.io.IOException e) {
+			throw new RuntimeException("Could not load piece set " + path + ": " + e.getMessage());
 		}
-		
-		return(result);
 	}
 
 
 	/**
 	 Selects the next piece to use using the random generator
-	 set in startGame().
+	 set in startGame(). The engine calls this whenever it puts
+	 a new piece in play, with the board committed.
 	*/
 	public Piece pickNextPiece() {
 		int pieceNum;
@@ -296,42 +290,6 @@ public class JTetris extends JComponent {
 	}
 	
 			
-	/**
-	 Tries to add a new random piece at the top of the board.
-	 Ends the game if it's not possible.
-	*/
-	public void addNewPiece() {
-		count++;
-		score++;
-		
-		if (testMode && count == TEST_LIMIT+1) {
-			 stopGame();
-			 return;
-		}
-
-		// commit things the way they are
-		board.commit();
-		currentPiece = null;
-
-		Piece piece = pickNextPiece();
-		
-		// Center it up at the top
-		int px = (board.getWidth() - piece.getWidth())/2;
-		int py = board.getHeight() - piece.getHeight();
-		
-		// add the new piece to be in play
-		int result = setCurrent(piece, px, py);
-		
-		// This probably never happens, since
-		// the blocks at the top allow space
-		// for new pieces to at least be added.
-		if (result>Board.PLACE_ROW_FILLED) {
-			stopGame();
-		}
-
-		updateCounters();
-	}
-	
 	/**
 	 Updates the count/score labels with the latest values.
 	 */
@@ -342,66 +300,23 @@ public class JTetris extends JComponent {
 	
 	
 	/**
-	 Figures a new position for the current piece
-	 based on the given verb (LEFT, RIGHT, ...).
-	 The board should be in the committed state --
-	 i.e. the piece should not be in the board at the moment.
-	 This is necessary so dropHeight() may be called without
-	 the piece "hitting itself" on the way down.
-
-	 Sets the ivars newX, newY, and newPiece to hold
-	 what it thinks the new piece position should be.
-	 (Storing an intermediate result like that in
-	 ivars is a little tacky.)
+	 Copies the engine's current piece, count and score into
+	 the fields subclasses and paintComponent() read.
 	*/
-	public void computeNewPosition(int verb) {
-		// As a starting point, the new position is the same as the old
-		newPiece = currentPiece;
-		newX = currentX;
-		newY = currentY;
-		
-		// Make changes based on the verb
-		switch (verb) {
-			case LEFT: newX--; break;
-			
-			case RIGHT: newX++; break;
-			
-			case ROTATE:
-				newPiece = newPiece.fastRotation();
-				
-				// tricky: make the piece appear to rotate about its center
-				// can't just leave it at the same lower-left origin as the
-				// previous piece.
-				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
-				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
-				break;
-				
-			case DOWN: newY--; break;
-			
-			case DROP:
-			 newY = board.dropHeight(newPiece, newX);
-			 
-			 // trick: avoid the case where the drop would cause
-			 // the piece to appear to move up
-			 if (newY > currentY) {
-				 newY = currentY;
-			 }
-			 break;
-			 
-			default:
-				 throw new RuntimeException("Bad verb");
-		}
-	
+	protected void updateState() {
+		currentPiece = engine.getCurrentPiece();
+		currentX = engine.getCurrentX();
+		currentY = engine.getCurrentY();
+		count = engine.getCount();
+		score = engine.getScore();
 	}
 
-
-
 		
-	public static final int ROTATE = 0;
-	public static final int LEFT = 1;
-	public static final int RIGHT = 2;
-	public static final int DROP = 3;
-	public static final int DOWN = 4;
+	public static final int ROTATE = GameEngine.ROTATE;
+	public static final int LEFT = GameEngine.LEFT;
+	public static final int RIGHT = GameEngine.RIGHT;
+	public static final int DROP = GameEngine.DROP;
+	public static final int DOWN = GameEngine.DOWN;
 	/**
 	 Called to change the position of the current piece.
 	 Each key press calls this once with the verbs
@@ -410,76 +325,46 @@ public class JTetris extends JComponent {
 	 the piece down one square.
 
 	 Before this is called, the piece is at some location in the board.
-	 This advances the piece to be at its next location.
+	 This advances the piece to be at its next location,
+	 by the rules of GameEngine.tick(), and repaints what changed.
 	 
 	 Overriden by the brain when it plays.
 	*/
 	public void tick(int verb) {
 		if (!gameOn) return;
 		
-		if (currentPiece != null) {
-			board.undo();	// remove the piece from its old position
-		}
-		
-		// Sets the newXXX ivars
-		computeNewPosition(verb);
-		
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
+		Piece oldPiece = currentPiece;
+		int oldX = currentX;
+		int oldY = currentY;
 		
-		// if row clearing is going to happen, draw the
-		// whole board so the green row shows up
-		if (result ==  Board.PLACE_ROW_FILLED) {
-			repaint();
-		}
+		int status = engine.tick(verb);
+		updateState();
 		
-
-		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-		
-		// if it didn't work, put it back the way it was
-		if (failed) {
-			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+		if (status == GameEngine.TICK_MOVED) {
+			repaintPiece(oldPiece, oldX, oldY);
 			repaintPiece(currentPiece, currentX, currentY);
-		}
-		
-		/*
-		 How to detect when a piece has landed:
-		 if this move hits something on its DOWN verb,
-		 and the previous verb was also DOWN (i.e. the player was not
-		 still moving it),	then the previous position must be the correct
-		 "landed" position, so we're done with the falling of this piece.
-		*/
-		if (failed && verb==DOWN && !moved) {	// it's landed
-		
-			int cleared = board.clearRows();
-			if (cleared > 0) {
-				// score goes up by 5, 10, 20, 40 for row clearing
-				// clearing 4 gets you a beep!
-				switch (cleared) {
-					case 1: score += 5;	 break;
-					case 2: score += 10;  break;
-					case 3: score += 20;  break;
-					case 4: score += 40; Toolkit.getDefaultToolkit().beep(); break;
-					default: score += 50;  // could happen with non-standard pieces
-				}
-				updateCounters();
-				repaint();	// repaint to show the result of the row clearing
-			}
 			
-			
-			// if the board is too tall, we've lost
-			if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-				stopGame();
-			}
-			// Otherwise add a new piece and keep playing
-			else {
-				addNewPiece();
+			// if row clearing is going to happen, draw the
+			// whole board so the green row shows up
+			for (int y=currentY; y<currentY+currentPiece.getHeight(); y++) {
+				if (board.getRowWidth(y) == board.getWidth()) {
+					repaint();
+					break;
+				}
 			}
 		}
+		else if (status != GameEngine.TICK_BLOCKED) {	// it's landed
+			// clearing 4 gets you a beep!
+			if (engine.getLastCleared() == 4) Toolkit.getDefaultToolkit().beep();
+			updateCounters();
+			repaint();	// repaint to show the result of the row clearing
+		}
 		
-		// Note if the player made a successful non-DOWN move --
-		// used to detect if the piece has landed on the next tick()
-		moved = (!failed && verb!=DOWN);
+		// the engine ends the game when the board is too tall,
+		// or at the end of the test sequence
+		if (!engine.isGameOn()) {
+			stopGame();
+		}
 	}
 
 
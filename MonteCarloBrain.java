@@ -0,0 +1,372 @@
+// MonteCarloBrain.java
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ A Brain that rates each play of a piece by playing the game on from it.
+ Every play DefaultBrain would try is made on a private copy of the board,
+ then a number of playouts each draw random pieces for a number of moves,
+ playing each one either greedily (the play the evaluator rates best) or
+ at random. The play's score is the average rating of the boards the
+ playouts end on, with ExpectimaxBrain.DEAD for a playout that tops out.
+ A lower score wins, and equal scores go to the play DefaultBrain tries
+ first. With depth 0 the playouts are just the play itself, so the brain
+ plays like DefaultBrain.
+
+ The plays are split across a ForkJoinPool, and each worker plays on its
+ own board from the worker thread's BoardPool, using checkpoint()/rollback()
+ to get back to the play after each playout -- so the simulation loop
+ allocates nothing. Each play gets its own SplittableRandom, split from the
+ brain's stream in list order before the search forks, so the moves chosen
+ depend only on the seed, not on how the work is scheduled.
+
+ Boards are rated with the evaluator's rateBoard(), which must be safe to
+ call from several threads at once (DefaultBrain's is). A brain must not be
+ asked for two moves at once.
+*/
+public class MonteCarloBrain implements Brain {
+    private final DefaultBrain evaluator;
+    private final Piece[] pieces;       // playouts draw uniformly from these
+    private final ForkJoinPool pool;
+    private final SplittableRandom random;
+    private int playouts;
+    private int depth;
+    private boolean greedy = true;
+
+    private long playoutCount;          // playouts run since the counters were reset
+    private long nanos;                 // time spent in bestMove() since then
+
+    /**
+     Creates a brain over the standard pieces on the common pool, rating
+     boards like DefaultBrain and running 16 greedy playouts 3 pieces deep.
+    */
+    public MonteCarloBrain() {
+        this(new DefaultBrain(), Piece.getPieces(), ForkJoinPool.commonPool(), 16, 3, 1);
+    }
+
+    /**
+     Creates a brain that rates boards with the evaluator's rateBoard(),
+     draws playout pieces uniformly from the given first rotations and
+     runs on the given pool. Playouts of the same seed are the same.
+    */
+    public MonteCarloBrain(DefaultBrain evaluator, Piece[] pieces, ForkJoinPool pool, int playouts, int depth, long seed) {
+        this.evaluator = evaluator;
+        this.pieces = pieces.clone();
+        this.pool = pool;
+        this.random = new SplittableRandom(seed);
+        setPlayouts(playouts);
+        setDepth(depth);
+    }
+
+    /**
+     Sets the number of playouts run from each play.
+    */
+    public void setPlayouts(int playouts) {
+        if (playouts < 1) throw new RuntimeException("Need at least one playout");
+        this.playouts = playouts;
+    }
+
+    public int getPlayouts() {
+        return playouts;
+    }
+
+    /**
+     Sets the number of pieces each playout plays after the play it rates.
+    */
+    public void setDepth(int depth) {
+        if (depth < 0) throw new RuntimeException("Depth must not be negative");
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     Sets whether playouts play each piece where the evaluator rates it best
+     (the default) or at a random column and rotation. Random playouts are
+     far cheaper per piece but need many more of them.
+    */
+    public void setGreedy(boolean greedy) {
+        this.greedy = greedy;
+    }
+
+    public boolean getGreedy() {
+        return greedy;
+    }
+
+    /**
+     Given a piece and a board, returns a move object that represents
+     the best play for that piece, or returns null if no play is possible.
+     move.score is the average score of the play's playouts.
+     See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        long start = System.nanoTime();
+        board.commit();
+
+        // list the plays in DefaultBrain's order: rotation by rotation, x ascending
+        int count = 0;
+        Piece current = piece;
+        do {
+            count += Math.max(0, board.getWidth() - current.getWidth() + 1);
+            current = current.fastRotation();
+        } while (current != piece);
+        Piece[] plays = new Piece[count];
+        int[] xs = new int[count];
+        SplittableRandom[] streams = new SplittableRandom[count];
+        double[] scores = new double[count];
+        int i = 0;
+        do {
+            for (int x=0; x<board.getWidth()-current.getWidth()+1; x++) {
+                plays[i] = current;
+                xs[i] = x;
+                streams[i++] = random.split();
+            }
+            current = current.fastRotation();
+        } while (current != piece);
+
+        pool.invoke(new Search(board, plays, xs, streams, scores, limitHeight, 0, count));
+
+        int best = -1;
+        for (i=0; i<count; i++) {
+            if (Double.isNaN(scores[i])) continue;
+            playoutCount += playouts;
+            if (best < 0 || scores[i] < scores[best]) best = i;
+        }
+        nanos += System.nanoTime() - start;
+        if (best < 0) return(null);    // could not find a play at all!
+
+        if (move==null) move = new Brain.Move();
+        move.piece = plays[best];
+        move.x = xs[best];
+        move.y = board.dropHeight(plays[best], xs[best]);
+        move.score = scores[best];
+        return(move);
+    }
+
+    /*
+     Rates plays lo..hi-1 into scores[], NaN for a play that is not
+     possible, splitting the range in half down to single plays.
+    */
+    private class Search extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final Piece[] plays;
+        private final int[] xs;
+        private final SplittableRandom[] streams;
+        private final double[] scores;
+        private final int limitHeight;
+        private final int lo, hi;
+
+        Search(Board board, Piece[] plays, int[] xs, SplittableRandom[] streams, double[] scores, int limitHeight, int lo, int hi) {
+            this.board = board;
+            this.plays = plays;
+            this.xs = xs;
+            this.streams = streams;
+            this.scores = scores;
+            this.limitHeight = limitHeight;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Search(board, plays, xs, streams, scores, limitHeight, lo, mid),
+                    new Search(board, plays, xs, streams, scores, limitHeight, mid, hi));
+                return;
+            }
+
+            BoardPool boards = BoardPool.local();
+            Board scratch = boards.acquire(board);
+            for (int i=lo; i<hi; i++) {
+                scores[i] = rate(scratch, plays[i], xs[i], limitHeight, streams[i]);
+            }
+            boards.release(scratch);
+        }
+    }
+
+    /*
+     Makes the play on the committed board and returns the average score
+     of its playouts, or NaN if the play is not possible. Leaves the board
+     as it found it.
+    */
+    private double rate(Board board, Piece piece, int x, int limitHeight, SplittableRandom random) {
+        int y = board.dropHeight(piece, x);
+        if (y >= limitHeight - piece.getHeight() + 1) return Double.NaN;    // piece sticks up too far
+        board.checkpoint();
+        int result = board.place(piece, x, y);
+        if (result > Board.PLACE_ROW_FILLED) {
+            board.rollback();
+            return Double.NaN;
+        }
+        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+        board.commit();
+
+        double sum = 0;
+        for (int n=0; n<playouts; n++) {
+            board.checkpoint();
+            sum += playout(board, limitHeight, random);
+            board.rollback();
+        }
+        board.rollback();
+        return sum / playouts;
+    }
+
+    /*
+     Plays depth random pieces on the committed board and returns the
+     rating of the board it ends on, or DEAD if a piece cannot be played.
+    */
+    private double playout(Board board, int limitHeight, SplittableRandom random) {
+        for (int d=0; d<depth; d++) {
+            Piece piece = pieces[random.nextInt(pieces.length)];
+            if (!(greedy ? playGreedy(board, piece, limitHeight) : playRandom(board, piece, limitHeight, random))) {
+                return ExpectimaxBrain.DEAD;
+            }
+            board.commit();
+        }
+        return evaluator.rateBoard(board);
+    }
+
+    /*
+     Plays the piece where the evaluator rates it best, as DefaultBrain
+     would. Returns false if it cannot be played anywhere.
+    */
+    private boolean playGreedy(Board board, Piece piece, int limitHeight) {
+        double bestScore = 1e20;
+        Piece bestPiece = null;
+        int bestX = 0, bestY = 0;
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight()+1;
+            final int xBound = board.getWidth() - current.getWidth()+1;
+            for (int x = 0; x<xBound; x++) {
+                int y = board.dropHeight(current, x);
+                if (y<yBound) {
+                    int result = board.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                        double score = evaluator.rateBoard(board);
+                        if (score<bestScore) {
+                            bestScore = score;
+                            bestPiece = current;
+                            bestX = x;
+                            bestY = y;
+                        }
+                    }
+                    board.undo();
+                }
+            }
+            current = current.fastRotation();
+        } while (current != piece);
+        if (bestPiece == null) return false;
+
+        if (board.place(bestPiece, bestX, bestY) == Board.PLACE_ROW_FILLED) board.clearRows();
+        return true;
+    }
+
+    /*
+     Drops a random rotation of the piece at a random column, trying the
+     other rotations and columns in turn if it does not fit there. Returns
+     false if it cannot be played anywhere.
+    */
+    private boolean playRandom(Board board, Piece piece, int limitHeight, SplittableRandom random) {
+        Piece current = piece;
+        for (int r=random.nextInt(4); r>0; r--) current = current.fastRotation();
+        Piece first = current;
+        do {
+            int xBound = board.getWidth() - current.getWidth() + 1;
+            if (xBound > 0) {
+                int start = random.nextInt(xBound);
+                for (int k=0; k<xBound; k++) {
+                    int x = (start + k) % xBound;
+                    int y = board.dropHeight(current, x);
+                    if (y < limitHeight - current.getHeight() + 1) {
+                        int result = board.place(current, x, y);
+                        if (result <= Board.PLACE_ROW_FILLED) {
+                            if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                            return true;
+                        }
+                        board.undo();
+                    }
+                }
+            }
+            current = current.fastRotation();
+        } while (current != first);
+        return false;
+    }
+
+    /**
+     Returns the number of playouts run since the counters were reset.
+    */
+    public long getPlayoutCount() {
+        return playoutCount;
+    }
+
+    /**
+     Returns the playouts run per second of time spent in bestMove()
+     since the counters were reset.
+    */
+    public double getPlayoutsPerSecond() {
+        return (nanos == 0) ? 0 : playoutCount * 1e9 / nanos;
+    }
+
+    public void resetCounters() {
+        playoutCount = 0;
+        nanos = 0;
+    }
+
+    /**
+     Plays the same piece sequences with DefaultBrain and with greedy and
+     random playouts, printing the pieces survived, the time per piece and
+     the playouts/sec of each.
+     Usage: java MonteCarloBrain [playouts] [depth] [games] [piece limit]
+    */
+    public static void main(String[] args) {
+        int playouts = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+        int depth = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        int games = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+        int limit = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+
+        MonteCarloBrain greedy = new MonteCarloBrain(new DefaultBrain(), Piece.getPieces(), ForkJoinPool.commonPool(), playouts, depth, 1);
+        MonteCarloBrain random = new MonteCarloBrain(new DefaultBrain(), Piece.getPieces(), ForkJoinPool.commonPool(), playouts*8, depth, 1);
+        random.setGreedy(false);
+        Brain[] brains = {new DefaultBrain(), greedy, random};
+        String[] names = {"DefaultBrain", playouts + " greedy playouts", (playouts*8) + " random playouts"};
+        for (int b=0; b<brains.length; b++) {
+            long pieces = 0, nanos = 0;
+            for (int game=0; game<games; game++) {
+                long start = System.nanoTime();
+                pieces += play(brains[b], game, limit);
+                nanos += System.nanoTime() - start;
+            }
+            String rate = (b == 0) ? "" : ", " + (long)((MonteCarloBrain)brains[b]).getPlayoutsPerSecond() + " playouts/sec";
+            System.out.println(names[b] + ": " + (pieces / games) + " pieces, "
+                + (nanos / 1000 / Math.max(1, pieces)) + " us/piece" + rate);
+        }
+        System.out.println(ForkJoinPool.commonPool().getParallelism() + " workers, depth " + depth);
+    }
+
+    /*
+     Plays one standard game and returns the number of pieces played.
+    */
+    private static int play(Brain brain, long seed, int limit) {
+        java.util.Random random = new java.util.Random(seed);
+        Piece[] pieces = Piece.getPieces();
+        Board board = new Board(JTetris.WIDTH, JTetris.HEIGHT + JTetris.TOP_SPACE);
+        int count;
+        for (count=0; count<limit; count++) {
+            Brain.Move move = brain.bestMove(board, pieces[random.nextInt(pieces.length)], JTetris.HEIGHT, null);
+            if (move == null) break;
+            board.place(move.piece, move.x, move.y);
+            board.clearRows();
+            board.commit();
+            if (board.getMaxHeight() > JTetris.HEIGHT) break;
+        }
+        return count;
+    }
+}
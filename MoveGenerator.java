@@ -0,0 +1,251 @@
+// MoveGenerator.java
+
+import java.util.Random;
+
+/**
+ Finds every resting placement of a piece that can really be reached
+ from where the game spawns it, by a breadth-first search over piece
+ states (rotation, x, y) using the verbs of GameEngine.tick():
+ LEFT, RIGHT, ROTATE (about the piece's center, as JTetris does it),
+ DOWN and DROP. Unlike the straight drops DefaultBrain tries, this finds
+ slides and tucks under overhangs. A placement is resting when the piece
+ cannot move DOWN from it.
+
+ Each placement comes with a shortest verb sequence that reaches it.
+ Positions are tested with Board.canPlace(), which ANDs the piece's
+ precomputed row masks against the board's row bitmasks, and visited
+ states are kept in a bitset. The working arrays are reused, so
+ generate() does not allocate once it has seen the largest board and
+ piece; only getPath() allocates.
+
+ Typical client code looks like...
+ <pre>
+ MoveGenerator moves = new MoveGenerator();
+ int n = moves.generate(board, piece);
+ for (int i=0; i&lt;n; i++) {
+     board.place(moves.getPiece(i), moves.getX(i), moves.getY(i));
+     ...
+     board.undo();
+ }
+ int[] verbs = moves.getPath(best);	// e.g. {LEFT, LEFT, DOWN, ..., RIGHT}
+ </pre>
+ Not thread safe.
+*/
+public class MoveGenerator {
+    // The verbs tried from each state, as in JTetris
+    private static final int[] VERBS = {JTetris.LEFT, JTetris.RIGHT, JTetris.ROTATE, JTetris.DOWN, JTetris.DROP};
+
+    private Piece[] rotations = new Piece[4];
+    private int rotationCount;
+    private int width, height;             // of the board being searched
+
+    // States are numbered (rotation*width + x)*height + y
+    private long[] visited = new long[0];  // bitset of states seen
+    private int[] queue = new int[0];      // BFS queue of states
+    private int[] parent = new int[0];     // state each state was reached from, -1 for the spawn
+    private byte[] verb = new byte[0];     // verb that reached each state
+    private int[] placements = new int[0];
+    private int placementCount;
+
+    private long states;                   // states expanded since the counter was reset
+
+    /**
+     Finds the reachable placements of the piece, spawned where JTetris
+     spawns new pieces: centered, at the top of the board. Returns the
+     number of placements found.
+    */
+    public int generate(Board board, Piece piece) {
+        return generate(board, piece, (board.getWidth() - piece.getWidth())/2, board.getHeight() - piece.getHeight());
+    }
+
+    /**
+     Finds the reachable placements of the piece starting from (x,y).
+     Returns the number of placements found -- 0 if the piece does not
+     fit at its start. The board is only read.
+    */
+    public int generate(Board board, Piece piece, int x, int y) {
+        width = board.getWidth();
+        height = board.getHeight();
+        rotationCount = 0;
+        Piece p = piece;
+        do {
+            if (rotationCount == rotations.length) rotations = java.util.Arrays.copyOf(rotations, rotationCount*2);
+            rotations[rotationCount++] = p;
+            p = p.fastRotation();
+        } while (p != piece && p != null);
+
+        int total = rotationCount * width * height;
+        if (queue.length < total) {
+            visited = new long[(total+63)/64];
+            queue = new int[total];
+            parent = new int[total];
+            verb = new byte[total];
+            placements = new int[total];
+        }
+        else {
+            java.util.Arrays.fill(visited, 0, (total+63)/64, 0L);
+        }
+        placementCount = 0;
+        if (!board.canPlace(piece, x, y)) return 0;
+
+        int head = 0, tail = 0;
+        int start = x*height + y;
+        visited[start>>>6] |= 1L<<start;
+        parent[start] = -1;
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int s = queue[head++];
+            int sy = s % height;
+            int sx = (s / height) % width;
+            int r = s / (width*height);
+            Piece current = rotations[r];
+            states++;
+
+            if (!board.canPlace(current, sx, sy-1)) placements[placementCount++] = s;    // can't go DOWN, so it rests here
+
+            for (int v : VERBS) {
+                int r2 = r, x2 = sx, y2 = sy;
+                switch (v) {
+                    case JTetris.LEFT: x2--; break;
+                    case JTetris.RIGHT: x2++; break;
+                    case JTetris.DOWN: y2--; break;
+                    case JTetris.ROTATE:
+                        r2 = (r+1) % rotationCount;
+                        x2 = sx + (current.getWidth() - rotations[r2].getWidth())/2;
+                        y2 = sy + (current.getHeight() - rotations[r2].getHeight())/2;
+                        break;
+                    case JTetris.DROP:
+                        y2 = Math.min(sy, board.dropHeight(current, sx));
+                        if (y2 == sy) continue;    // already as low as DROP goes
+                        break;
+                }
+                if (!board.canPlace(rotations[r2], x2, y2)) continue;
+                int next = (r2*width + x2)*height + y2;
+                if ((visited[next>>>6] & (1L<<next)) != 0) continue;
+                visited[next>>>6] |= 1L<<next;
+                parent[next] = s;
+                verb[next] = (byte)v;
+                queue[tail++] = next;
+            }
+        }
+        return placementCount;
+    }
+
+    /**
+     Returns the number of placements found by the last generate().
+    */
+    public int getPlacementCount() {
+        return placementCount;
+    }
+
+    /**
+     Returns the rotation of placement i.
+    */
+    public Piece getPiece(int i) {
+        return rotations[placements[i] / (width*height)];
+    }
+
+    public int getX(int i) {
+        return (placements[i] / height) % width;
+    }
+
+    public int getY(int i) {
+        return placements[i] % height;
+    }
+
+    /**
+     Returns a shortest sequence of JTetris verbs that takes the piece from
+     its start to placement i.
+    */
+    public int[] getPath(int i) {
+        int length = 0;
+        for (int s=placements[i]; parent[s]>=0; s=parent[s]) length++;
+        int[] path = new int[length];
+        for (int s=placements[i]; parent[s]>=0; s=parent[s]) path[--length] = verb[s];
+        return path;
+    }
+
+    /**
+     Returns the number of piece states expanded since the counter was reset.
+    */
+    public long getStates() {
+        return states;
+    }
+
+    public void resetStates() {
+        states = 0;
+    }
+
+    /**
+     Compares the search against the drop-only enumeration DefaultBrain
+     uses, on boards with overhangs: prints the time per piece for each,
+     the states/sec of the search and how many placements only the search
+     finds.
+     Usage: java MoveGenerator [boards]
+    */
+    public static void main(String[] args) {
+        int boards = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        Piece[] pieces = Piece.getPieces();
+        Random random = new Random(1);
+        MoveGenerator moves = new MoveGenerator();
+
+        long dropNanos = 0, searchNanos = 0;
+        long dropCount = 0, searchCount = 0, tucks = 0, sink = 0;
+        for (int round=0; round<2; round++) {    // the first round warms up
+            dropNanos = searchNanos = dropCount = searchCount = tucks = 0;
+            moves.resetStates();
+            for (int n=0; n<boards; n++) {
+                Board board = overhangs(random);
+                Piece piece = pieces[random.nextInt(pieces.length)];
+
+                long start = System.nanoTime();
+                Piece current = piece;
+                do {    // DefaultBrain's enumeration, without the rating
+                    for (int x=0; x<=board.getWidth()-current.getWidth(); x++) {
+                        int y = board.dropHeight(current, x);
+                        if (y <= board.getHeight()-current.getHeight()) {
+                            sink += board.place(current, x, y);
+                            board.undo();
+                            dropCount++;
+                        }
+                    }
+                    current = current.fastRotation();
+                } while (current != piece);
+                long mid = System.nanoTime();
+                int found = moves.generate(board, piece);
+                searchNanos += System.nanoTime() - mid;
+                dropNanos += mid - start;
+
+                searchCount += found;
+                for (int i=0; i<found; i++) {
+                    if (moves.getY(i) < board.dropHeight(moves.getPiece(i), moves.getX(i))) tucks++;
+                }
+            }
+        }
+        System.out.println("drop only: " + (dropNanos / boards) + " ns/piece, " + (dropCount / boards) + " placements/piece"
+            + " (place() checksum " + sink + ")");
+        System.out.println("search:    " + (searchNanos / boards) + " ns/piece, " + (searchCount / boards) + " placements/piece, "
+            + (long)(moves.getStates() * 1e9 / searchNanos) + " states/sec");
+        System.out.println("placements under overhangs, found only by the search: " + tucks + " over " + boards + " boards");
+    }
+
+    /*
+     A standard size board with a ragged stack and some overhangs: garbage
+     rows, then a few pieces dropped at random, then a few blocks knocked
+     out under them.
+    */
+    private static Board overhangs(Random random) {
+        Board board = new Board(JTetris.WIDTH, JTetris.HEIGHT + JTetris.TOP_SPACE);
+        Piece[] pieces = Piece.getPieces();
+        board.addGarbage(2 + random.nextInt(4), random.nextInt(JTetris.WIDTH));
+        board.commit();
+        for (int i=0; i<4; i++) {
+            Piece piece = pieces[random.nextInt(pieces.length)];
+            int x = random.nextInt(board.getWidth() - piece.getWidth() + 1);
+            board.place(piece, x, board.dropHeight(piece, x) + random.nextInt(2));    // sometimes leave a gap under it
+            board.commit();
+        }
+        return board;
+    }
+}
@@ -0,0 +1,194 @@
+// ParallelBrain.java
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ A Brain that rates the possible plays of a piece in parallel.
+ The plays -- every rotation at every x -- are listed in the order
+ DefaultBrain tries them, then split into ranges across a ForkJoinPool.
+ Each worker plays its range on its own copy of the board, taken from the
+ worker thread's BoardPool, so the caller's board is only read.
+
+ Results are combined so that a lower score wins and equal scores go to
+ the play listed first, which is exactly the play DefaultBrain keeps, so
+ both brains return the same move for the same evaluator.
+
+ Boards are rated with the evaluator's rateBoard(), which must therefore
+ be safe to call from several threads at once (DefaultBrain's is). The
+ evaluator's EvalCache is not used, since caches are not thread safe.
+*/
+public class ParallelBrain implements Brain {
+    // Fewest plays a task plays itself rather than splitting further -- each
+    // task pays for a board copy, so tasks are also kept to about four per worker
+    public static final int MIN_GRAIN = 4;
+
+    private final DefaultBrain evaluator;
+    private final ForkJoinPool pool;
+
+    /**
+     Creates a brain that rates boards like DefaultBrain on the common pool.
+    */
+    public ParallelBrain() {
+        this(new DefaultBrain(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     Creates a brain that rates boards with the evaluator's rateBoard(),
+     running on the given pool.
+    */
+    public ParallelBrain(DefaultBrain evaluator, ForkJoinPool pool) {
+        this.evaluator = evaluator;
+        this.pool = pool;
+    }
+
+    /**
+     Given a piece and a board, returns a move object that represents
+     the best play for that piece, or returns null if no play is possible.
+     See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        board.commit();
+
+        // list the plays in DefaultBrain's order: rotation by rotation, x ascending
+        int count = 0;
+        Piece current = piece;
+        do {
+            count += Math.max(0, board.getWidth() - current.getWidth() + 1);
+            current = current.fastRotation();
+        } while (current != piece);
+        Piece[] pieces = new Piece[count];
+        int[] xs = new int[count];
+        int i = 0;
+        do {
+            for (int x=0; x<board.getWidth()-current.getWidth()+1; x++) {
+                pieces[i] = current;
+                xs[i++] = x;
+            }
+            current = current.fastRotation();
+        } while (current != piece);
+
+        int grain = Math.max(MIN_GRAIN, (count + 4*pool.getParallelism() - 1) / (4*pool.getParallelism()));
+        Result best = pool.invoke(new Search(board, pieces, xs, limitHeight, grain, 0, count));
+        if (best.index < 0) return(null);    // could not find a play at all!
+
+        if (move==null) move = new Brain.Move();
+        move.x = xs[best.index];
+        move.y = best.y;
+        move.piece = pieces[best.index];
+        move.score = best.score;
+        return(move);
+    }
+
+    // The best play in a range of the list, index -1 if there was none
+    private static class Result {
+        double score = 1e20;
+        int index = -1;
+        int y;
+    }
+
+    /*
+     Finds the best play among plays lo..hi-1, splitting the range
+     in half until it is at most grain long.
+    */
+    private class Search extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final Piece[] pieces;
+        private final int[] xs;
+        private final int limitHeight;
+        private final int grain;
+        private final int lo, hi;
+
+        Search(Board board, Piece[] pieces, int[] xs, int limitHeight, int grain, int lo, int hi) {
+            this.board = board;
+            this.pieces = pieces;
+            this.xs = xs;
+            this.limitHeight = limitHeight;
+            this.grain = grain;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected Result compute() {
+            if (hi - lo <= grain) return play();
+
+            int mid = (lo + hi) >>> 1;
+            Search left = new Search(board, pieces, xs, limitHeight, grain, lo, mid);
+            left.fork();
+            Result right = new Search(board, pieces, xs, limitHeight, grain, mid, hi).compute();
+            Result result = left.join();
+            // the left half comes first in the list, so it keeps ties
+            return (right.score < result.score) ? right : result;
+        }
+
+        private Result play() {
+            Result result = new Result();
+            BoardPool boards = BoardPool.local();
+            Board scratch = boards.acquire(board);
+            for (int i=lo; i<hi; i++) {
+                Piece current = pieces[i];
+                int x = xs[i];
+                int y = scratch.dropHeight(current, x);
+                if (y < limitHeight - current.getHeight() + 1) {    // piece does not stick up too far
+                    int placed = scratch.place(current, x, y);
+                    if (placed <= Board.PLACE_ROW_FILLED) {
+                        if (placed == Board.PLACE_ROW_FILLED) scratch.clearRows();
+
+                        double score = evaluator.rateBoard(scratch);
+                        if (score < result.score) {
+                            result.score = score;
+                            result.index = i;
+                            result.y = y;
+                        }
+                    }
+                    scratch.undo();
+                }
+            }
+            boards.release(scratch);
+            return result;
+        }
+    }
+
+    /**
+     Compares the parallel and serial brains on a wide board with the
+     given piece set (the standard pieces by default), printing the
+     average decision time of each and checking that every move agrees.
+     Usage: java ParallelBrain [width] [pieces file]
+    */
+    public static void main(String[] args) throws Exception {
+        int width = (args.length > 0) ? Integer.parseInt(args[0]) : 128;
+        Piece[] roots = (args.length > 1) ? PieceSetLoader.load(args[1]).getRoots() : Piece.getPieces();
+        DefaultBrain serial = new DefaultBrain();
+        ParallelBrain parallel = new ParallelBrain();
+        java.util.Random random = new java.util.Random(1);
+
+        Board board = new Board(width, 60);
+        long serialNanos = 0, parallelNanos = 0;
+        int moves;
+        for (moves=0; moves<2000; moves++) {
+            Piece piece = roots[random.nextInt(roots.length)];
+            long start = System.nanoTime();
+            Brain.Move expected = serial.bestMove(board, piece, 40, null);
+            long mid = System.nanoTime();
+            Brain.Move got = parallel.bestMove(board, piece, 40, null);
+            parallelNanos += System.nanoTime() - mid;
+            serialNanos += mid - start;
+
+            if (expected == null && got == null) break;
+            if (expected == null || got == null || expected.piece != got.piece || expected.x != got.x
+                || expected.y != got.y || expected.score != got.score) {
+                throw new RuntimeException("Move " + moves + " differs between the serial and parallel brains");
+            }
+            board.place(got.piece, got.x, got.y);
+            board.clearRows();
+            board.commit();
+            if (board.getMaxHeight() > 40) break;
+        }
+        System.out.println(moves + " moves on a " + width + " wide board, all identical; "
+            + (serialNanos / 1000 / Math.max(1, moves)) + " us/move serial, "
+            + (parallelNanos / 1000 / Math.max(1, moves)) + " us/move parallel on "
+            + ForkJoinPool.commonPool().getParallelism() + " workers");
+    }
+}
@@ -17,17 +17,35 @@ import java.util.*;
  int width = stick.getWidth();		// get its width
  Piece stick2 = stick.fastRotation();	// get the next rotation, fast way
  </pre>
+ The pieces from getPieces() and their rotations belong to the default
+ PieceCatalog, which is built once at class initialization and never
+ changes, so they can be shared freely between threads.
 */
 public class Piece {
 	// Starter code specs out a few basic things, leaving
 	// the algorithms to be done.
-	private TPoint[] body;				//it's an array of TPoints which represent the shape of the piece
-	private int[] skirt;				//derived from the body, so you can just test this to also verify body
-	private int width;
-	private int height;
+	private final TPoint[] body;		//it's an array of TPoints which represent the shape of the piece
+	private final int[] skirt;			//derived from the body, so you can just test this to also verify body
+	private final int width;
+	private final int height;
+	
+	// The body again as flat primitive tables, so the board can test and
+	// stamp a piece without touching the TPoint objects
+	private final int[] coords;			//block i packed as x | (y<<16)
+	private final long[] rowMasks;		//rowMasks[y] has bit x set for each block (x,y) -- null for pieces wider than 64
+	private final int[] columnTops;		//for each x, the highest y in that column + 1
+	private final int[] columnCounts;	//for each x, the number of blocks in that column
+	private final int[] canonical;		//coords sorted, so that equal bodies give equal arrays whatever the block order
+	private final int hash;				//hash of canonical, computed once
 	private Piece next; // "next" rotation.  It's a pointer to a premade piece, for quick next-rotation access
-
-	static private Piece[] pieces;	// singleton static array of first rotations, obtained through the Class Method getPieces()
+	
+	// Set for the rotations in a PieceCatalog, which are interned: there is
+	// exactly one Piece object per (type, rotation), numbered 0..getPieceCount()-1.
+	// Like next, these are only written while the catalog is being built.
+	private PieceCatalog catalog;		//null for pieces that are not interned
+	private int id = -1;				//-1 for pieces that are not interned
+	private int type = -1;				//index of the root piece in the catalog
+	private int rotation;				//number of fastRotation() steps from the root
 
 	/**
 	 Defines a new piece given a TPoint[] array of its body.
@@ -39,6 +57,22 @@ public class Piece {
 		width = calcWidth(points);
 		height = calcHeight(points);
 		
+		// the primitive tables
+		coords = new int[points.length];
+		rowMasks = (width<=64) ? new long[height] : null;
+		columnTops = new int[width];
+		columnCounts = new int[width];
+		for(int i=0;i<points.length;i++){
+			int x = points[i].x;
+			int y = points[i].y;
+			coords[i] = x | (y<<16);
+			if(rowMasks!=null) rowMasks[y] |= 1L<<x;
+			if(columnTops[x]<y+1) columnTops[x] = y+1;
+			columnCounts[x]++;
+		}
+		canonical = coords.clone();
+		Arrays.sort(canonical);
+		hash = Arrays.hashCode(canonical);
 	}
 	
 
@@ -55,7 +89,7 @@ public class Piece {
 	 * Set the "next" pointer of this piece to another Piece
 	 * 
 	 */
-	private void setNext(Piece next){
+	void setNext(Piece next){
 		this.next = next;	
 	}
 	
@@ -144,6 +178,105 @@ public class Piece {
 		return body;
 	}
 
+	/**
+	 Returns the body packed one int per block: block i is at
+	 x = coords[i] & 0xFFFF, y = coords[i] >>> 16.
+	 The caller should not modify this array.
+	*/
+	public int[] getCoords() {
+		return coords;
+	}
+	
+	/**
+	 Returns one bitmask per row of the piece: bit x of getRowMasks()[y]
+	 is set when the piece has a block at (x,y). Returns null for pieces
+	 wider than 64 blocks. The caller should not modify this array.
+	*/
+	public long[] getRowMasks() {
+		return rowMasks;
+	}
+	
+	/**
+	 Returns, for each x value across the piece, the highest y value
+	 in the body plus one -- the counterpart of the skirt for the
+	 top of the piece. The caller should not modify this array.
+	*/
+	public int[] getColumnTops() {
+		return columnTops;
+	}
+	
+	/**
+	 Returns, for each x value across the piece, the number of
+	 blocks in that column. The caller should not modify this array.
+	*/
+	public int[] getColumnCounts() {
+		return columnCounts;
+	}
+	
+	/**
+	 Returns the id of this rotation, a small integer unique to each
+	 (type, rotation) pair in its catalog, so per-piece data can be kept
+	 in arrays indexed by id. Returns -1 for a piece that is not in a catalog.
+	*/
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 Returns the index in its catalog of this piece's first rotation,
+	 e.g. Piece.STICK, or -1 for a piece that is not in a catalog.
+	*/
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 Returns the number of fastRotation() steps from the first rotation of
+	 this piece to this one. 0 for a piece that is not in a catalog.
+	*/
+	public int getRotation() {
+		return rotation;
+	}
+	
+	/**
+	 Returns the catalog this piece belongs to, or null.
+	*/
+	public PieceCatalog getCatalog() {
+		return catalog;
+	}
+	
+	/**
+	 Returns the rotation with the given id in the default catalog.
+	*/
+	public static Piece getPiece(int id) {
+		return PieceCatalog.getDefault().getPiece(id);
+	}
+	
+	/**
+	 Returns the number of rotations in the default catalog -- ids run
+	 from 0 to this - 1.
+	*/
+	public static int getPieceCount() {
+		return PieceCatalog.getDefault().getPieceCount();
+	}
+	
+	/*
+	 * Called by PieceCatalog, once per rotation, while it is being built
+	 */
+	void intern(PieceCatalog catalog, int id, int type, int rotation) {
+		this.catalog = catalog;
+		this.id = id;
+		this.type = type;
+		this.rotation = rotation;
+	}
+	
+	/**
+	 Returns the number of blocks in the piece.
+	*/
+	public int getSize() {
+		return coords.length;
+	}
+
 	/**
 	 Prints out the piece's body. 
 	*/
@@ -191,15 +324,7 @@ public class Piece {
 	 just returns null.
 	*/	
 	public Piece fastRotation() {
-
-		if(Piece.pieces != null){				//the piece associated with the method call NEEDS to be from the pieces[] array, or else it can't do a fast rotation
-				return next;		
-		}
-		else{
-			System.out.println("This piece was not created from the pieces array, and thus cannot use fastRotation");
-		}
-		return null;
-		
+		return next;		//the links are fixed when the catalog is built, so there is nothing to check
 	}
 	
 
@@ -211,6 +336,8 @@ public class Piece {
 	 same body arrays, since the points may not be
 	 in the same order in the bodies. Used internally to detect
 	 if two rotations are effectively the same.
+	 Interned pieces are unique, so two of them are compared by id;
+	 otherwise the sorted packed coordinates are compared, with no allocation.
 	*/
 	public boolean equals(Object obj) {
 		// standard equals() technique 1
@@ -221,16 +348,15 @@ public class Piece {
 		if (!(obj instanceof Piece)) return false;
 		
 		Piece other = (Piece)obj;
-		int testlength=other.getBody().length;
-		if(this.body.length != testlength) return false;			//make sure body lists are same length
-		List<TPoint> testPieceList = new ArrayList<TPoint>(testlength);
-		List<TPoint> thisPieceList = new ArrayList<TPoint>(testlength);
-		for(int i=0;i<testlength;i++){         //add each element of the body arrays to corresponding List
-			testPieceList.add(other.getBody()[i]);
-			thisPieceList.add(this.getBody()[i]);
-		}	        
-		if(thisPieceList.containsAll(testPieceList)) return true;  //check if all items contained in one list exists in the other
-		else return false;	
+		if(catalog!=null && catalog==other.catalog) return false;		//two different rotations of one catalog
+		return hash==other.hash && Arrays.equals(canonical, other.canonical);
+	}
+	
+	/**
+	 Hash code of the body's points, consistent with equals(). Precomputed.
+	*/
+	public int hashCode() {
+		return hash;
 	}
 
 
@@ -260,25 +386,14 @@ public class Piece {
 	 from each piece with the {@link #fastRotation()} message.
 	 In this way, the client can iterate through all the rotations
 	 until eventually getting back to the first rotation.
-	 (provided code)
+	 The pieces come from the default PieceCatalog, which is built eagerly
+	 at class initialization. Each call returns a fresh copy of the array
+	 (7 references), so callers may keep or change it; code that needs the
+	 pieces over and over should call this once and keep the array, as the
+	 brains and GameEngine.RandomSource do.
 	*/
 	public static Piece[] getPieces() {
-		// lazy evaluation -- create static array if needed
-		if (Piece.pieces==null) {
-			// use makeFastRotations() to compute all the rotations for each piece
-			Piece.pieces = new Piece[] {
-				makeFastRotations(new Piece(STICK_STR)),
-				makeFastRotations(new Piece(L1_STR)),
-				makeFastRotations(new Piece(L2_STR)),
-				makeFastRotations(new Piece(S1_STR)),
-				makeFastRotations(new Piece(S2_STR)),
-				makeFastRotations(new Piece(SQUARE_STR)),
-				makeFastRotations(new Piece(PYRAMID_STR)),
-			};
-		}
-		
-		
-		return Piece.pieces;
+		return PieceCatalog.getDefault().getRoots();
 	}
 	
 
@@ -295,7 +410,7 @@ public class Piece {
 	 and Piece.equals() to detect when the rotations have gotten us back
 	 to the first piece.
 	*/
-	private static Piece makeFastRotations(Piece root) {
+	static Piece makeFastRotations(Piece root) {
 		Piece nextRot = root.computeNextRotation();		//sets up the first rotation
 		if(nextRot.equals(root)){						//special case for SQUARE where the next rotation is itself...
 			root.setNext(root);
@@ -322,7 +437,7 @@ public class Piece {
 	 the points into a TPoint[] array.
 	 (Provided code)
 	*/
-	private static TPoint[] parsePoints(String string) {
+	static TPoint[] parsePoints(String string) {
 		List<TPoint> points = new ArrayList<TPoint>();
 		StringTokenizer tok = new StringTokenizer(string);
 		try {
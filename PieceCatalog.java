@@ -0,0 +1,127 @@
+// PieceCatalog.java
+
+import java.util.*;
+
+/**
+ An immutable set of tetris pieces with all their rotations worked out:
+ the first rotation of each piece type, the fastRotation() links between
+ rotations, and the id of every rotation.
+
+ A catalog is built completely by its constructor and never changes
+ afterwards. Everything in it is reached through final fields, so a
+ constructed catalog can be shared by any number of threads with no
+ locking. The catalog of the standard 7 pieces is built when this class
+ is initialized, so it is ready before any game asks for it.
+ <pre>
+ PieceCatalog catalog = PieceCatalog.getDefault();
+ Piece stick = catalog.getRoot(Piece.STICK);
+ Piece same = catalog.getPiece(stick.getId());
+ </pre>
+*/
+public final class PieceCatalog {
+	private static final PieceCatalog DEFAULT = new PieceCatalog(new Piece[] {
+		new Piece(Piece.STICK_STR),
+		new Piece(Piece.L1_STR),
+		new Piece(Piece.L2_STR),
+		new Piece(Piece.S1_STR),
+		new Piece(Piece.S2_STR),
+		new Piece(Piece.SQUARE_STR),
+		new Piece(Piece.PYRAMID_STR),
+	});
+
+	private final Piece[] roots;		// first rotation of each type
+	private final Piece[] states;		// every rotation, indexed by id
+
+	/**
+	 Builds a catalog from the first rotation of each piece type, computing
+	 and linking all the other rotations. Ids are given out type by type, and
+	 within a type in fastRotation() order. The pieces passed in become part
+	 of the catalog, so they must not already be in one.
+	*/
+	public PieceCatalog(Piece[] firstRotations) {
+		roots = new Piece[firstRotations.length];
+		List<Piece> all = new ArrayList<Piece>();
+		for (int type=0; type<roots.length; type++) {
+			if (firstRotations[type].getId() >= 0) throw new RuntimeException("Piece " + type + " is already in a catalog");
+			roots[type] = Piece.makeFastRotations(firstRotations[type]);
+			Piece p = roots[type];
+			int rotation = 0;
+			do {
+				p.intern(this, all.size(), type, rotation++);
+				all.add(p);
+				p = p.fastRotation();
+			} while (p != roots[type]);
+		}
+		states = all.toArray(new Piece[0]);
+	}
+
+	/**
+	 Builds a catalog from rotations that have already been worked out:
+	 rotations[type] lists every distinct rotation of one piece type, first
+	 rotation first, each the counterclockwise rotation of the one before.
+	 Used by PieceSetLoader, which computes the rotations itself while
+	 checking for duplicate pieces, and when reading a cached catalog.
+	*/
+	PieceCatalog(Piece[][] rotations) {
+		roots = new Piece[rotations.length];
+		List<Piece> all = new ArrayList<Piece>();
+		for (int type=0; type<roots.length; type++) {
+			Piece[] ring = rotations[type];
+			if (ring.length == 0) throw new RuntimeException("Piece " + type + " has no rotations");
+			roots[type] = ring[0];
+			for (int rotation=0; rotation<ring.length; rotation++) {
+				if (ring[rotation].getId() >= 0) throw new RuntimeException("Piece " + type + " is already in a catalog");
+				ring[rotation].setNext(ring[(rotation+1) % ring.length]);
+				ring[rotation].intern(this, all.size(), type, rotation);
+				all.add(ring[rotation]);
+			}
+		}
+		states = all.toArray(new Piece[0]);
+	}
+
+	/**
+	 Returns the catalog of the 7 standard tetris pieces, in the order
+	 STICK, L1, L2, S1, S2, SQUARE, PYRAMID.
+	*/
+	public static PieceCatalog getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 Returns the number of piece types.
+	*/
+	public int getTypeCount() {
+		return roots.length;
+	}
+
+	/**
+	 Returns the first rotation of the given piece type.
+	*/
+	public Piece getRoot(int type) {
+		return roots[type];
+	}
+
+	/**
+	 Returns a new array of the first rotation of each piece type.
+	 It is a copy, so the catalog stays immutable; use getRoot() to
+	 look up a single type without allocating.
+	*/
+	public Piece[] getRoots() {
+		return roots.clone();
+	}
+
+	/**
+	 Returns the number of rotations over all the types -- ids run
+	 from 0 to this - 1.
+	*/
+	public int getPieceCount() {
+		return states.length;
+	}
+
+	/**
+	 Returns the rotation with the given id.
+	*/
+	public Piece getPiece(int id) {
+		return states[id];
+	}
+}
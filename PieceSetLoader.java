@@ -0,0 +1,196 @@
+// PieceSetLoader.java
+
+import java.io.*;
+import java.util.*;
+
+/**
+ Loads custom sets of pieces -- pentominoes, random n-ominoes and so on --
+ into a PieceCatalog, so the game, the brains and the board can run on them
+ in place of the standard 7 pieces.
+
+ A piece set definition is a text file with one piece per line, written
+ as x,y pairs in the same format as Piece.STICK_STR:
+ <pre>
+ # the I pentomino and the X pentomino
+ 0 0  0 1  0 2  0 3  0 4
+ 1 0  0 1  1 1  2 1  1 2
+ </pre>
+ Blank lines and anything after a '#' are ignored. Each piece is shifted so
+ its lowest x and y are 0, all of its rotations are computed with
+ computeNextRotation(), and a piece that is a rotation of an earlier one
+ is dropped, so every type in the catalog is distinct. Skirts and
+ placement masks are computed as each rotation is built.
+
+ A built catalog can be saved in a compact binary form holding every
+ rotation, which loads without any of that work:
+ <pre>
+ java PieceSetLoader pentominoes.txt pentominoes.bin
+ </pre>
+ load() accepts either form.
+*/
+public class PieceSetLoader {
+	// Starts every binary catalog file -- "TPS1"
+	private static final int MAGIC = 0x54505331;
+
+	/**
+	 Loads a piece set from a file, which may be a text definition or a
+	 binary catalog written by write().
+	*/
+	public static PieceCatalog load(String path) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(path));
+		try {
+			in.mark(4);
+			DataInputStream data = new DataInputStream(in);
+			boolean binary = (in.available() >= 4 && data.readInt() == MAGIC);
+			in.reset();
+			if (binary) return read(data);
+			return parse(new InputStreamReader(in, "UTF-8"));
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 Builds a catalog from a text piece set definition.
+	*/
+	public static PieceCatalog parse(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		List<Piece[]> types = new ArrayList<Piece[]>();
+		String line;
+		int lineNum = 0;
+		while ((line = in.readLine()) != null) {
+			lineNum++;
+			int comment = line.indexOf('#');
+			if (comment >= 0) line = line.substring(0, comment);
+			if (line.trim().length() == 0) continue;
+
+			Piece root;
+			try {
+				root = normalize(Piece.parsePoints(line));
+			}
+			catch (RuntimeException e) {
+				throw new RuntimeException("Line " + lineNum + ": " + e.getMessage());
+			}
+			Piece[] rotations = rotations(root);
+			if (!isDuplicate(rotations, types)) types.add(rotations);
+		}
+		if (types.isEmpty()) throw new RuntimeException("Piece set has no pieces");
+		return new PieceCatalog(types.toArray(new Piece[0][]));
+	}
+
+	/**
+	 Writes the catalog in binary form: every rotation of every type, so
+	 that read() rebuilds it without computing anything.
+	*/
+	public static void write(PieceCatalog catalog, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeShort(catalog.getTypeCount());
+		for (int type=0; type<catalog.getTypeCount(); type++) {
+			Piece root = catalog.getRoot(type);
+			int count = 0;
+			Piece p = root;
+			do {
+				count++;
+				p = p.fastRotation();
+			} while (p != root);
+			data.writeByte(count);
+			data.writeShort(root.getSize());
+			do {
+				int[] coords = p.getCoords();
+				for (int i=0; i<coords.length; i++) data.writeInt(coords[i]);
+				p = p.fastRotation();
+			} while (p != root);
+		}
+		data.flush();
+	}
+
+	/**
+	 Reads a catalog written by write().
+	*/
+	public static PieceCatalog read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) throw new RuntimeException("Not a binary piece set");
+		Piece[][] types = new Piece[data.readUnsignedShort()][];
+		for (int type=0; type<types.length; type++) {
+			types[type] = new Piece[data.readUnsignedByte()];
+			TPoint[] body = new TPoint[data.readUnsignedShort()];
+			for (int r=0; r<types[type].length; r++) {
+				TPoint[] points = new TPoint[body.length];
+				for (int i=0; i<points.length; i++) {
+					int coord = data.readInt();
+					points[i] = new TPoint(coord & 0xFFFF, coord >>> 16);
+				}
+				types[type][r] = new Piece(points);
+			}
+		}
+		return new PieceCatalog(types);
+	}
+
+	/*
+	 Makes a piece of the points moved so that their lowest x and y are 0 --
+	 the piece code and the board assume this.
+	*/
+	private static Piece normalize(TPoint[] body) {
+		if (body.length == 0) throw new RuntimeException("Piece has no blocks");
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		for (TPoint pt : body) {
+			minX = Math.min(minX, pt.x);
+			minY = Math.min(minY, pt.y);
+		}
+		Set<TPoint> seen = new HashSet<TPoint>();
+		TPoint[] moved = new TPoint[body.length];
+		for (int i=0; i<body.length; i++) {
+			moved[i] = new TPoint(body[i].x - minX, body[i].y - minY);
+			if (!seen.add(moved[i])) throw new RuntimeException("Piece has the block " + moved[i] + " twice");
+		}
+		return new Piece(moved);
+	}
+
+	/*
+	 Returns every distinct rotation of the root, root first.
+	*/
+	private static Piece[] rotations(Piece root) {
+		List<Piece> ring = new ArrayList<Piece>();
+		Piece p = root;
+		do {
+			ring.add(p);
+			p = p.computeNextRotation();
+		} while (!p.equals(root));
+		return ring.toArray(new Piece[0]);
+	}
+
+	/*
+	 Returns true if the piece is a rotation of one of the types so far.
+	*/
+	private static boolean isDuplicate(Piece[] rotations, List<Piece[]> types) {
+		for (Piece[] type : types) {
+			if (type.length != rotations.length) continue;
+			for (Piece p : type) {
+				if (p.equals(rotations[0])) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 Converts a text piece set to the binary form.
+	 Usage: java PieceSetLoader definition.txt catalog.bin
+	*/
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java PieceSetLoader definition.txt catalog.bin");
+			System.exit(1);
+		}
+		PieceCatalog catalog = load(args[0]);
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			write(catalog, out);
+		}
+		finally {
+			out.close();
+		}
+		System.out.println(catalog.getTypeCount() + " pieces, " + catalog.getPieceCount() + " rotations");
+	}
+}
@@ -0,0 +1,14 @@
+// PieceSource.java
+
+/**
+ Where a GameEngine gets its pieces from. JTetris draws them uniformly at
+ random (see GameEngine.RandomSource), but a source can equally replay a
+ recorded sequence or pick pieces adversarially.
+*/
+public interface PieceSource {
+	/**
+	 Returns the next piece to play -- the first rotation of the piece,
+	 as in Piece.getPieces().
+	*/
+	public Piece nextPiece();
+}
@@ -111,5 +111,100 @@ public class PieceTest {
 			assertEquals(newS1_2,sRotated);
 			assertEquals(newS1_3,newS1_1);
 		}		
+		
+		// The primitive tables describe the same blocks as the body
+		@Test
+		public void testTables() {
+			assertTrue(Arrays.equals(new long[] {7, 2}, pyr1.getRowMasks()));
+			assertTrue(Arrays.equals(new int[] {1, 2, 1}, pyr1.getColumnTops()));
+			assertTrue(Arrays.equals(new int[] {1, 2, 1}, pyr1.getColumnCounts()));
+			assertTrue(Arrays.equals(new long[] {2, 3, 2}, pyr2.getRowMasks()));
+			assertTrue(Arrays.equals(new int[] {2, 3}, pyr2.getColumnTops()));
+			assertTrue(Arrays.equals(new int[] {1, 3}, pyr2.getColumnCounts()));
+			assertTrue(Arrays.equals(new long[] {3, 6}, s.getRowMasks()));
+			assertEquals(4, s.getSize());
+			
+			int[] coords = sRotated.getCoords();
+			for (int i=0; i<coords.length; i++) {
+				TPoint pt = sRotated.getBody()[i];
+				assertEquals(pt.x, coords[i] & 0xFFFF);
+				assertEquals(pt.y, coords[i] >>> 16);
+			}
+		}
+		
+		// Every rotation in the pieces array has its own small id
+		@Test
+		public void testIds() {
+			Piece[] pieceArray = Piece.getPieces();
+			assertEquals(19, Piece.getPieceCount());
+			for (int id=0; id<Piece.getPieceCount(); id++) {
+				Piece p = Piece.getPiece(id);
+				assertEquals(id, p.getId());
+				Piece q = pieceArray[p.getType()];
+				for (int r=0; r<p.getRotation(); r++) q = q.fastRotation();
+				assertSame(p, q);
+			}
+			Piece pyr = pieceArray[Piece.PYRAMID];
+			assertEquals(Piece.PYRAMID, pyr.getType());
+			assertEquals(2, pyr.fastRotation().fastRotation().getRotation());
+			assertEquals(-1, pyr1.getId());
+			
+			// equal bodies hash alike, interned or not and whatever the point order
+			assertEquals(pyr, pyr1);
+			assertEquals(pyr.hashCode(), pyr1.hashCode());
+			assertEquals(pyr2.hashCode(), new Piece("1 2  0 1  1 1  1 0").hashCode());
+			assertEquals(pyr2, new Piece("1 2  0 1  1 1  1 0"));
+			assertFalse(pyr.equals(pyr.fastRotation()));
+			assertFalse(pyr1.equals(pyr2));
+		}
+		
+		// Catalogs are built eagerly and getPieces() hands out copies
+		@Test
+		public void testCatalog() {
+			PieceCatalog catalog = PieceCatalog.getDefault();
+			assertEquals(7, catalog.getTypeCount());
+			Piece[] pieceArray = Piece.getPieces();
+			pieceArray[Piece.STICK] = null;
+			assertSame(catalog.getRoot(Piece.STICK), Piece.getPieces()[Piece.STICK]);
+			assertSame(catalog, catalog.getRoot(Piece.L1).fastRotation().getCatalog());
+			assertEquals(null, pyr1.fastRotation());
+			
+			// a catalog of its own, with its own ids
+			PieceCatalog mine = new PieceCatalog(new Piece[] {new Piece(Piece.SQUARE_STR), new Piece(Piece.S1_STR)});
+			assertEquals(3, mine.getPieceCount());
+			assertEquals(1, mine.getPiece(2).getType());
+			assertEquals(mine.getRoot(0), catalog.getRoot(Piece.SQUARE));
+			assertFalse(mine.getRoot(0).equals(mine.getRoot(1)));
+		}
+		
+		// Loading a text piece set, and its binary form
+		@Test
+		public void testLoader() throws Exception {
+			String text = "# a pentomino, a rotation of it and the square\n"
+				+ "0 0  1 0  2 0  0 1  0 2\n"
+				+ "\n"
+				+ "10 10  11 10  12 10  12 11  12 12	# V rotated, shifted away from the origin\n"
+				+ Piece.SQUARE_STR + "\n";
+			PieceCatalog set = PieceSetLoader.parse(new java.io.StringReader(text));
+			assertEquals(2, set.getTypeCount());
+			assertEquals(5, set.getPieceCount());
+			Piece v = set.getRoot(0);
+			assertTrue(Arrays.equals(new int[] {0, 0, 0}, v.getSkirt()));
+			assertSame(v, v.fastRotation().fastRotation().fastRotation().fastRotation());
+			
+			java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+			PieceSetLoader.write(set, bytes);
+			PieceCatalog copy = PieceSetLoader.read(new java.io.ByteArrayInputStream(bytes.toByteArray()));
+			assertEquals(set.getPieceCount(), copy.getPieceCount());
+			for (int id=0; id<set.getPieceCount(); id++) {
+				assertEquals(set.getPiece(id), copy.getPiece(id));
+				assertEquals(set.getPiece(id).fastRotation(), copy.getPiece(id).fastRotation());
+			}
+			
+			// the board plays loaded pieces like any other
+			Board board = new Board(3, 6);
+			assertEquals(Board.PLACE_ROW_FILLED, board.place(v, 0, 0));
+			assertEquals(1, board.clearRows());
+		}
 
 }
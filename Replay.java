@@ -0,0 +1,372 @@
+// Replay.java
+
+import java.io.*;
+
+/**
+ Records games into a compact binary log and replays logs to check that
+ they reproduce. A Recorder sits between a GameEngine and its PieceSource,
+ logging every piece drawn, and the client tells it each verb it ticks or
+ each move it plays. Replay.verify() runs a log on a fresh engine at full
+ speed, with the logged pieces as its source, and checks that the game
+ ends with the logged piece count, score, rows and board hash.
+
+ Typical client code looks like...
+ <pre>
+ Replay.Recorder log = new Replay.Recorder(new GameEngine.RandomSource(pieces, seed), pieces, seed, out);
+ GameEngine game = new GameEngine(width, height, log);
+ log.start(game);
+ while (game.isGameOn()) log.tick(game, verb);	// or log.playMove(game, piece, x)
+ log.finish(game);
+ ...
+ Replay.Result result = Replay.verify(in, pieces);	// throws if the game does not reproduce
+ </pre>
+
+ The log is a header, in this order:
+ <ul>
+ <li>the magic number "TRP1" and the piece set's checksum, as 4 byte ints
+ <li>the piece set's size and the zigzag coded seed the pieces came from,
+ as varints, written by the Recorder's constructor
+ <li>the board's width and height, as varints, written by start()
+ </ul>
+ then a stream of varint tokens, whose low 3 bits say what they are:
+ <ul>
+ <li>0-4: a run of the same verb, the high bits holding the run length-1.
+ A game paced by DOWN ticks is mostly runs of DOWN, one byte each.
+ <li>5: a new piece, the high bits holding its index in the piece set.
+ Written when the engine draws it, so it lands right after the verb
+ that made the previous piece land.
+ <li>6: a move played with playMove(), the high bits holding the rotation
+ (steps from the current rotation) and the zigzag coded column change.
+ Only moves the engine accepted are logged, since a rejected one changes
+ nothing.
+ <li>7: the end, followed by the piece count, score and rows cleared as
+ varints and the hash of the landed blocks as 8 bytes.
+ </ul>
+ A game played by moves costs 2-3 bytes per piece, one played by verbs a
+ few more.
+*/
+public class Replay {
+	// Starts every replay log -- "TRP1"
+	private static final int MAGIC = 0x54525031;
+
+	// Token tags, in the low 3 bits (verbs are GameEngine's 0-4)
+	private static final int TAG_PIECE = 5;
+	private static final int TAG_MOVE = 6;
+	private static final int TAG_END = 7;
+
+	/**
+	 A PieceSource that logs the pieces it passes on, along with the verbs
+	 and moves the client reports. Not thread safe.
+	*/
+	public static class Recorder implements PieceSource {
+		private final PieceSource source;
+		private final Piece[] pieces;
+		private final OutputStream out;
+		private int runVerb = -1;		// the verb being counted, -1 for none
+		private int runLength;
+		private long bytes;
+		private int logged;				// pieces logged
+		private long pendingMove = -1;	// the move being played, logged once the engine accepts it
+
+		/**
+		 Creates a recorder that passes on the pieces of the source, which
+		 must all be among the given first rotations, and writes the log
+		 header to out. The seed is only recorded, for reference.
+		*/
+		public Recorder(PieceSource source, Piece[] pieces, long seed, OutputStream out) throws IOException {
+			this.source = source;
+			this.pieces = pieces.clone();
+			this.out = out;
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(MAGIC);
+			data.writeInt(checksum(pieces));
+			bytes = 8;
+			writeVarint(pieces.length);
+			writeVarint(zigzag(seed));
+		}
+
+		/**
+		 Records the board size and starts the game. The engine must take
+		 its pieces from this recorder.
+		*/
+		public void start(GameEngine engine) throws IOException {
+			writeVarint(engine.getBoard().getWidth());
+			writeVarint(engine.getHeight());
+			engine.start();
+		}
+
+		public Piece nextPiece() {
+			Piece piece = source.nextPiece();
+			int index = 0;
+			while (index < pieces.length && pieces[index] != piece) index++;
+			if (index == pieces.length) throw new RuntimeException("Piece is not in the recorded piece set");
+			try {
+				flushRun();
+				flushMove();	// the move that landed the last piece comes before the next one
+				writeVarint(((long) index << 3) | TAG_PIECE);
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Could not write replay: " + e.getMessage());
+			}
+			logged++;
+			return piece;
+		}
+
+		/**
+		 Records the verb and ticks the engine with it.
+		*/
+		public int tick(GameEngine engine, int verb) throws IOException {
+			if (verb != runVerb) {
+				flushRun();
+				runVerb = verb;
+			}
+			runLength++;	// counted before the tick, which may draw the next piece
+			return engine.tick(verb);
+		}
+
+		/**
+		 Plays the move on the engine, and records it if the engine accepts it.
+		*/
+		public int playMove(GameEngine engine, Piece piece, int x) throws IOException {
+			int rotation = 0;
+			Piece current = engine.getCurrentPiece();
+			for (Piece p = current; p != piece; p = p.fastRotation()) {
+				rotation++;
+				if (rotation > 4 || p.fastRotation() == current) throw new RuntimeException("Move is not a rotation of the current piece");
+			}
+			if (!engine.isGameOn()) return GameEngine.TICK_OVER;
+			flushRun();
+			pendingMove = ((zigzag(x - engine.getCurrentX()) << 2 | rotation) << 3) | TAG_MOVE;
+			int result = engine.playMove(piece, x);
+			if (result == GameEngine.TICK_BLOCKED) pendingMove = -1;
+			else flushMove();	// the game ended, so no piece was drawn
+			return result;
+		}
+
+		/**
+		 Records how the game ended and flushes the log. Takes the falling
+		 piece, if any, out of the engine's board, so the game should be over
+		 or abandoned.
+		*/
+		public void finish(GameEngine engine) throws IOException {
+			flushRun();
+			writeVarint(TAG_END);
+			writeVarint(engine.getCount());
+			writeVarint(engine.getScore());
+			writeVarint(engine.getRowsCleared());
+			engine.getBoard().undo();	// the landed blocks only, not a falling piece
+			new DataOutputStream(out).writeLong(engine.getBoard().getHash());
+			bytes += 8;
+			out.flush();
+		}
+
+		/**
+		 Returns the number of bytes written so far.
+		*/
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 Returns the number of pieces logged so far.
+		*/
+		public int getPieceCount() {
+			return logged;
+		}
+
+		private void flushRun() throws IOException {
+			if (runLength > 0) writeVarint(((long) (runLength - 1) << 3) | runVerb);
+			runVerb = -1;
+			runLength = 0;
+		}
+
+		private void flushMove() throws IOException {
+			if (pendingMove >= 0) writeVarint(pendingMove);
+			pendingMove = -1;
+		}
+
+		private void writeVarint(long value) throws IOException {
+			bytes += Replay.writeVarint(out, value);
+		}
+	}
+
+	/**
+	 How a replayed game ended.
+	*/
+	public static class Result {
+		public long seed;
+		public int width, height;
+		public int count, score, rowsCleared;
+		public int ticks, moves;
+		public long hash;
+	}
+
+	/**
+	 Replays a log on a fresh engine, with the given first rotations as the
+	 piece set, and checks that the game ends as logged. Throws a
+	 RuntimeException describing the first difference, or if the log is
+	 not a replay of this piece set.
+	*/
+	public static Result verify(InputStream in, Piece[] pieces) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) throw new RuntimeException("Not a replay log");
+		if (data.readInt() != checksum(pieces) || readVarint(data) != pieces.length) {
+			throw new RuntimeException("Replay was recorded with a different piece set");
+		}
+		final Piece[] set = pieces.clone();
+		final Result result = new Result();
+		result.seed = unzigzag(readVarint(data));
+		result.width = (int) readVarint(data);
+		result.height = (int) readVarint(data);
+
+		// the engine draws its pieces from the log as it needs them
+		PieceSource logged = new PieceSource() {
+			public Piece nextPiece() {
+				try {
+					long token = readVarint(data);
+					if ((token & 7) != TAG_PIECE) throw new RuntimeException("Replay diverged: a piece was drawn where the log has none");
+					return set[(int) (token >>> 3)];
+				}
+				catch (IOException e) {
+					throw new RuntimeException("Replay log ended early: " + e.getMessage());
+				}
+			}
+		};
+		GameEngine engine = new GameEngine(result.width, result.height, logged);
+		engine.start();
+
+		while (true) {
+			long token = readVarint(data);
+			int tag = (int) (token & 7);
+			if (tag == TAG_END) break;
+			if (tag == TAG_PIECE) throw new RuntimeException("Replay diverged: the log has a piece the game did not draw");
+			if (tag == TAG_MOVE) {
+				long value = token >>> 3;
+				Piece piece = engine.getCurrentPiece();
+				for (int r = (int) (value & 3); r > 0; r--) piece = piece.fastRotation();
+				int x = engine.getCurrentX() + (int) unzigzag(value >>> 2);
+				if (engine.playMove(piece, x) == GameEngine.TICK_BLOCKED) {
+					throw new RuntimeException("Replay diverged: move " + result.moves + " is not possible");
+				}
+				result.moves++;
+			}
+			else {
+				for (long n = (token >>> 3) + 1; n > 0; n--) engine.tick(tag);
+				result.ticks += (token >>> 3) + 1;
+			}
+		}
+
+		result.count = (int) readVarint(data);
+		result.score = (int) readVarint(data);
+		result.rowsCleared = (int) readVarint(data);
+		result.hash = data.readLong();
+		engine.getBoard().undo();
+		if (engine.getCount() != result.count || engine.getScore() != result.score
+			|| engine.getRowsCleared() != result.rowsCleared || engine.getBoard().getHash() != result.hash) {
+			throw new RuntimeException("Replay diverged: logged " + result.count + " pieces, score " + result.score
+				+ ", " + result.rowsCleared + " rows; replayed " + engine.getCount() + " pieces, score "
+				+ engine.getScore() + ", " + engine.getRowsCleared() + " rows"
+				+ ((engine.getBoard().getHash() != result.hash) ? ", different board" : ""));
+		}
+		return result;
+	}
+
+	// A checksum of the piece set, so a log is not replayed with another set
+	private static int checksum(Piece[] pieces) {
+		int sum = pieces.length;
+		for (Piece piece : pieces) sum = sum * 31 + piece.hashCode();
+		return sum;
+	}
+
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	private static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	// Writes 7 bits per byte, low bits first, the top bit set on all but the last.
+	// Returns the number of bytes written.
+	private static int writeVarint(OutputStream out, long value) throws IOException {
+		int n = 1;
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+			n++;
+		}
+		out.write((int) value);
+		return n;
+	}
+
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) throw new EOFException("Replay log ended early");
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new RuntimeException("Bad varint in replay log");
+	}
+
+	/**
+	 Records DefaultBrain games, played by moves and played by paced verbs
+	 as in JBrainTetris, then replays and verifies every one of them,
+	 printing the log size per piece and the replay speed.
+	 Usage: java Replay [games]
+	*/
+	public static void main(String[] args) throws IOException {
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		Piece[] pieces = Piece.getPieces();
+		DefaultBrain brain = new DefaultBrain();
+
+		for (int mode=0; mode<2; mode++) {
+			boolean verbs = (mode == 1);
+			byte[][] logs = new byte[games][];
+			long bytes = 0, logged = 0;
+			for (int game=0; game<games; game++) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Recorder log = new Recorder(new GameEngine.RandomSource(pieces, game), pieces, game, out);
+				GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, log);
+				engine.setPieceLimit(2000);
+				log.start(engine);
+				Brain.Move move = new Brain.Move();
+				int planned = 0;
+				while (engine.isGameOn()) {
+					if (planned != engine.getCount()) {
+						engine.getBoard().undo();
+						if (brain.bestMove(engine.getBoard(), engine.getCurrentPiece(), engine.getHeight(), move) == null) break;
+						planned = engine.getCount();
+						if (!verbs) {
+							log.playMove(engine, move.piece, move.x);
+							continue;
+						}
+					}
+					// one rotation and one step sideways per gravity tick
+					if (engine.getCurrentPiece() != move.piece) log.tick(engine, GameEngine.ROTATE);
+					if (engine.getCurrentX() < move.x) log.tick(engine, GameEngine.RIGHT);
+					else if (engine.getCurrentX() > move.x) log.tick(engine, GameEngine.LEFT);
+					log.tick(engine, GameEngine.DOWN);
+				}
+				log.finish(engine);
+				logs[game] = out.toByteArray();
+				bytes += logs[game].length;
+				logged += log.getPieceCount();
+			}
+
+			long replayed = 0, nanos = 0;
+			for (int round=0; round<10; round++) {	// the first rounds warm up
+				long start = System.nanoTime();
+				replayed = 0;
+				for (int game=0; game<games; game++) {
+					replayed += verify(new ByteArrayInputStream(logs[game]), pieces).count;
+				}
+				nanos = System.nanoTime() - start;
+			}
+			System.out.println((verbs ? "verbs: " : "moves: ") + games + " games, " + logged + " pieces, "
+				+ String.format("%.2f", (double) bytes / logged) + " bytes/piece; all verified, replayed at "
+				+ (long) (replayed * 1e9 / nanos) + " pieces/sec");
+		}
+	}
+}
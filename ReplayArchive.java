@@ -0,0 +1,357 @@
+// ReplayArchive.java
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ An append-only archive of many played games, read through memory
+ mappings so any piece of any game is a constant time, zero-copy lookup.
+ Where a Replay log records a game's inputs compactly for re-running, the
+ archive records where every piece landed, for analysis.
+
+ An archive is two files. NAME.data holds every game's placements as
+ fixed-width 4 byte records, game after game, so piece k of a game is at
+ the game's offset + 4k. A record packs the landed rotation's catalog id
+ (Piece.getId()), x and y into an int; see record(). NAME.index holds a
+ fixed-width 32 byte entry per game: its offset in the data file, its
+ piece count, score, rows cleared, seed and board size. So finding game
+ n, piece k is two reads from the mappings.
+
+ Appending writes a game's records, then its index entry, so a reader
+ never sees a game whose data is incomplete. A Reader sees the games that
+ were complete when it was opened. The data file is mapped in 1GB
+ segments, so archives may grow past 2GB; records never straddle one.
+
+ Typical client code looks like...
+ <pre>
+ ReplayArchive.Writer out = new ReplayArchive.Writer("games");
+ out.addGame(seed, engine, records, count);
+ out.close();
+
+ ReplayArchive.Reader in = new ReplayArchive.Reader("games");
+ int record = in.getPlacement(game, k);
+ Piece piece = Piece.getPiece(ReplayArchive.getId(record));
+ in.scan(visitor);	// every placement of every game, in order
+ </pre>
+*/
+public class ReplayArchive {
+	// Start the data and index files -- "TRA1" and "TRI1"
+	private static final int DATA_MAGIC = 0x54524131;
+	private static final int INDEX_MAGIC = 0x54524931;
+	private static final int HEADER = 8;		// magic and a reserved int, keeping records aligned
+
+	public static final int RECORD_BYTES = 4;
+	public static final int ENTRY_BYTES = 32;
+
+	// Data file mapping segments, a multiple of RECORD_BYTES
+	private static final long SEGMENT = 1L << 30;
+
+	// Record layout: id in the top 10 bits, then x and y in 11 bits each
+	public static final int MAX_ID = (1<<10) - 1;
+	public static final int MAX_COORD = (1<<11) - 1;
+
+	/**
+	 Packs a placement into a record.
+	*/
+	public static int record(int id, int x, int y) {
+		if (id < 0 || id > MAX_ID || x < 0 || x > MAX_COORD || y < 0 || y > MAX_COORD) {
+			throw new RuntimeException("Placement " + id + " at (" + x + "," + y + ") does not fit in a record");
+		}
+		return (id << 22) | (x << 11) | y;
+	}
+
+	public static int getId(int record) {
+		return record >>> 22;
+	}
+
+	public static int getX(int record) {
+		return (record >>> 11) & MAX_COORD;
+	}
+
+	public static int getY(int record) {
+		return record & MAX_COORD;
+	}
+
+	/**
+	 Appends games to an archive, creating it if needed. Not thread safe,
+	 and there should only be one writer per archive at a time.
+	*/
+	public static class Writer implements Closeable {
+		private final FileChannel data;
+		private final FileChannel index;
+		private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		private ByteBuffer records = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		private long offset;			// where the next game's records go
+		private int games;
+
+		public Writer(String name) throws IOException {
+			data = FileChannel.open(Paths.get(name + ".data"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			index = FileChannel.open(Paths.get(name + ".index"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			checkHeader(data, DATA_MAGIC);
+			checkHeader(index, INDEX_MAGIC);
+
+			// anything past the last indexed game is from a write that did not finish
+			long indexed = (index.size() - HEADER) / ENTRY_BYTES;
+			games = (int) indexed;
+			index.truncate(HEADER + indexed * ENTRY_BYTES);
+			offset = HEADER;
+			if (games > 0) {
+				ByteBuffer last = ByteBuffer.allocate(ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				index.read(last, HEADER + (indexed - 1) * ENTRY_BYTES);
+				offset = last.getLong(0) + (long) last.getInt(8) * RECORD_BYTES;
+			}
+			data.truncate(offset);
+		}
+
+		/**
+		 Appends a game: its first count records (see record()), how it
+		 ended and the seed its pieces came from. Returns the game's number.
+		*/
+		public int addGame(long seed, int width, int height, int score, int rowsCleared, int[] placements, int count) throws IOException {
+			long bytes = (long) count * RECORD_BYTES;
+			if (records.capacity() < bytes) {
+				records = ByteBuffer.allocate((int) Math.max(bytes, records.capacity() * 2L)).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			records.clear();
+			for (int i=0; i<count; i++) records.putInt(placements[i]);
+			records.flip();
+			long at = offset;
+			while (records.hasRemaining()) at += data.write(records, at);
+
+			entry.clear();
+			entry.putLong(offset).putInt(count).putInt(score).putLong(seed).putInt(rowsCleared).putInt(width << 16 | height);
+			entry.flip();
+			long where = HEADER + (long) games * ENTRY_BYTES;
+			while (entry.hasRemaining()) where += index.write(entry, where);
+
+			offset = at;
+			return games++;
+		}
+
+		/**
+		 Appends a game played on the engine, which has ended.
+		*/
+		public int addGame(long seed, GameEngine engine, int[] placements, int count) throws IOException {
+			return addGame(seed, engine.getBoard().getWidth(), engine.getHeight(), engine.getScore(), engine.getRowsCleared(),
+				placements, count);
+		}
+
+		public int getGameCount() {
+			return games;
+		}
+
+		public void close() throws IOException {
+			data.close();
+			index.close();
+		}
+
+		// Writes the header to an empty file, or checks it is there
+		private static void checkHeader(FileChannel file, int magic) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			if (file.size() == 0) {
+				header.putInt(magic).putInt(0).flip();
+				file.write(header, 0);
+			}
+			else {
+				file.read(header, 0);
+				if (file.size() < HEADER || header.getInt(0) != magic) throw new RuntimeException("Not a replay archive");
+			}
+		}
+	}
+
+	/**
+	 Receives the placements of a scan(), one call each, in archive order.
+	*/
+	public interface Visitor {
+		public void placement(int game, int piece, int record);
+	}
+
+	/**
+	 Reads an archive through memory mappings. Safe to use from several
+	 threads, since it only ever does absolute reads.
+	*/
+	public static class Reader implements Closeable {
+		private final FileChannel data;
+		private final MappedByteBuffer index;
+		private final MappedByteBuffer[] segments;
+		private final int games;
+
+		/**
+		 Opens the archive and maps the games complete at this moment.
+		*/
+		public Reader(String name) throws IOException {
+			data = FileChannel.open(Paths.get(name + ".data"), StandardOpenOption.READ);
+			FileChannel indexFile = FileChannel.open(Paths.get(name + ".index"), StandardOpenOption.READ);
+			try {
+				long size = indexFile.size();
+				if (size < HEADER || size - HEADER > Integer.MAX_VALUE) throw new RuntimeException("Bad replay archive index");
+				games = (int) ((size - HEADER) / ENTRY_BYTES);
+				index = indexFile.map(FileChannel.MapMode.READ_ONLY, 0, HEADER + (long) games * ENTRY_BYTES);
+				index.order(ByteOrder.LITTLE_ENDIAN);
+				if (index.getInt(0) != INDEX_MAGIC) throw new RuntimeException("Not a replay archive");
+			}
+			finally {
+				indexFile.close();		// the mapping stays valid
+			}
+
+			long end = (games == 0) ? HEADER : getOffset(games-1) + (long) getPieceCount(games-1) * RECORD_BYTES;
+			if (data.size() < end) throw new RuntimeException("Replay archive data is shorter than its index");
+			segments = new MappedByteBuffer[(int) ((end + SEGMENT - 1) / SEGMENT)];
+			for (int s=0; s<segments.length; s++) {
+				long start = s * SEGMENT;
+				segments[s] = data.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, end - start));
+				segments[s].order(ByteOrder.LITTLE_ENDIAN);
+			}
+			if (segments[0].getInt(0) != DATA_MAGIC) throw new RuntimeException("Not a replay archive");
+		}
+
+		public int getGameCount() {
+			return games;
+		}
+
+		/**
+		 Returns the number of placements recorded for the game.
+		*/
+		public int getPieceCount(int game) {
+			return index.getInt(entry(game) + 8);
+		}
+
+		public int getScore(int game) {
+			return index.getInt(entry(game) + 12);
+		}
+
+		public long getSeed(int game) {
+			return index.getLong(entry(game) + 16);
+		}
+
+		public int getRowsCleared(int game) {
+			return index.getInt(entry(game) + 24);
+		}
+
+		public int getWidth(int game) {
+			return index.getInt(entry(game) + 28) >>> 16;
+		}
+
+		public int getHeight(int game) {
+			return index.getInt(entry(game) + 28) & 0xFFFF;
+		}
+
+		/**
+		 Returns the record of piece k of the game, straight from the mapping.
+		*/
+		public int getPlacement(int game, int k) {
+			if (k < 0 || k >= getPieceCount(game)) throw new RuntimeException("Game " + game + " has no piece " + k);
+			long at = getOffset(game) + (long) k * RECORD_BYTES;
+			return segments[(int) (at / SEGMENT)].getInt((int) (at % SEGMENT));
+		}
+
+		/**
+		 Calls the visitor with every placement of games from..to-1, in order,
+		 reading the mappings sequentially and creating no objects.
+		*/
+		public void scan(int from, int to, Visitor visitor) {
+			for (int game=from; game<to; game++) {
+				long at = getOffset(game);
+				int count = getPieceCount(game);
+				for (int k=0; k<count; k++, at += RECORD_BYTES) {
+					visitor.placement(game, k, segments[(int) (at / SEGMENT)].getInt((int) (at % SEGMENT)));
+				}
+			}
+		}
+
+		/**
+		 Calls the visitor with every placement of every game.
+		*/
+		public void scan(Visitor visitor) {
+			scan(0, games, visitor);
+		}
+
+		public void close() throws IOException {
+			data.close();		// the mappings are released when they are collected
+		}
+
+		private long getOffset(int game) {
+			return index.getLong(entry(game));
+		}
+
+		private int entry(int game) {
+			if (game < 0 || game >= games) throw new RuntimeException("No game " + game + " in the archive");
+			return HEADER + game * ENTRY_BYTES;
+		}
+	}
+
+	/**
+	 Archives DefaultBrain games, then times random access to single
+	 placements and a full scan that rebuilds every game's piece counts.
+	 Usage: java ReplayArchive name [games]
+	*/
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java ReplayArchive name [games]");
+			System.exit(1);
+		}
+		String name = args[0];
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		Piece[] pieces = Piece.getPieces();
+		DefaultBrain brain = new DefaultBrain();
+
+		Writer out = new Writer(name);
+		int first = out.getGameCount();
+		int[] placements = new int[1024];
+		Brain.Move move = new Brain.Move();
+		long start = System.nanoTime();
+		for (int game=0; game<games; game++) {
+			long seed = first + game;
+			GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, new GameEngine.RandomSource(pieces, seed));
+			engine.setPieceLimit(5000);
+			engine.start();
+			int count = 0;
+			while (engine.isGameOn()) {
+				engine.getBoard().undo();
+				if (brain.bestMove(engine.getBoard(), engine.getCurrentPiece(), engine.getHeight(), move) == null) break;
+				engine.playMove(move.piece, move.x);
+				if (count == placements.length) placements = java.util.Arrays.copyOf(placements, count*2);
+				placements[count++] = record(engine.getLastPiece().getId(), engine.getLastX(), engine.getLastY());
+			}
+			out.addGame(seed, engine, placements, count);
+		}
+		out.close();
+		System.out.println("archived " + games + " games in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+		Reader in = new Reader(name);
+		final long[] totals = new long[2];
+		Visitor counter = new Visitor() {
+			public void placement(int game, int piece, int record) {
+				totals[0]++;
+				totals[1] += getY(record);
+			}
+		};
+		long nanos = 0;
+		for (int round=0; round<5; round++) {	// the first rounds warm up
+			totals[0] = totals[1] = 0;
+			start = System.nanoTime();
+			in.scan(counter);
+			nanos = System.nanoTime() - start;
+		}
+		System.out.println("scan: " + in.getGameCount() + " games, " + totals[0] + " placements, "
+			+ (long) (totals[0] * 1e9 / nanos) + " placements/sec, mean landing y " + String.format("%.2f", (double) totals[1] / totals[0]));
+
+		java.util.Random random = new java.util.Random(1);
+		int lookups = 1000000;
+		long sink = 0;
+		for (int round=0; round<2; round++) {
+			start = System.nanoTime();
+			for (int i=0; i<lookups; i++) {
+				int game = random.nextInt(in.getGameCount());
+				sink += in.getPlacement(game, random.nextInt(in.getPieceCount(game)));
+			}
+			nanos = System.nanoTime() - start;
+		}
+		System.out.println("random access: " + (nanos / lookups) + " ns/lookup (record checksum " + sink + ")");
+		in.close();
+	}
+}
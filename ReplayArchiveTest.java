@@ -0,0 +1,137 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import org.junit.*;
+
+/*
+  Unit tests for the ReplayArchive class.
+ */
+public class ReplayArchiveTest {
+	private String name;
+
+	@Before
+	public void setUp() throws Exception {
+		File file = File.createTempFile("archive", "");
+		file.delete();
+		name = file.getPath();
+	}
+
+	@After
+	public void tearDown() {
+		new File(name + ".data").delete();
+		new File(name + ".index").delete();
+	}
+
+	// Game g, piece k is placed at (g+k, k) with id k
+	private int[] game(int g, int count) {
+		int[] records = new int[count];
+		for (int k=0; k<count; k++) records[k] = ReplayArchive.record(k, g + k, k);
+		return records;
+	}
+
+	// Records pack and unpack, and fields that do not fit are refused
+	@Test
+	public void testRecord() {
+		int record = ReplayArchive.record(27, 9, 2047);
+		assertEquals(27, ReplayArchive.getId(record));
+		assertEquals(9, ReplayArchive.getX(record));
+		assertEquals(2047, ReplayArchive.getY(record));
+		record = ReplayArchive.record(ReplayArchive.MAX_ID, 0, 0);
+		assertEquals(ReplayArchive.MAX_ID, ReplayArchive.getId(record));
+		try {
+			ReplayArchive.record(0, 2048, 0);
+			fail();
+		}
+		catch (RuntimeException expected) {
+		}
+	}
+
+	// Any piece of any game reads back, including from a second append
+	// and past an unindexed partial write
+	@Test
+	public void testRandomAccess() throws Exception {
+		ReplayArchive.Writer out = new ReplayArchive.Writer(name);
+		assertEquals(0, out.addGame(100, 10, 20, 55, 3, game(0, 40), 40));
+		assertEquals(1, out.addGame(101, 10, 20, 0, 0, game(1, 0), 0));
+		out.close();
+
+		// a stray tail on the data file, as from a crash before the index entry
+		java.io.RandomAccessFile data = new java.io.RandomAccessFile(name + ".data", "rw");
+		data.seek(data.length());
+		data.writeInt(-1);
+		data.close();
+
+		out = new ReplayArchive.Writer(name);
+		assertEquals(2, out.getGameCount());
+		assertEquals(2, out.addGame(102, 7, 9, 8, 1, game(2, 5), 5));
+		out.close();
+
+		ReplayArchive.Reader in = new ReplayArchive.Reader(name);
+		assertEquals(3, in.getGameCount());
+		assertEquals(40, in.getPieceCount(0));
+		assertEquals(0, in.getPieceCount(1));
+		assertEquals(5, in.getPieceCount(2));
+		assertEquals(55, in.getScore(0));
+		assertEquals(3, in.getRowsCleared(0));
+		assertEquals(102, in.getSeed(2));
+		assertEquals(7, in.getWidth(2));
+		assertEquals(9, in.getHeight(2));
+		assertEquals(ReplayArchive.record(39, 39, 39), in.getPlacement(0, 39));
+		assertEquals(ReplayArchive.record(0, 2, 0), in.getPlacement(2, 0));
+		assertEquals(ReplayArchive.record(4, 6, 4), in.getPlacement(2, 4));
+		try {
+			in.getPlacement(2, 5);
+			fail();
+		}
+		catch (RuntimeException expected) {
+		}
+		in.close();
+	}
+
+	// A scan visits every placement in order, and recorded games match their engines
+	@Test
+	public void testScan() throws Exception {
+		Piece[] pieces = Piece.getPieces();
+		DefaultBrain brain = new DefaultBrain();
+		Brain.Move move = new Brain.Move();
+		ReplayArchive.Writer out = new ReplayArchive.Writer(name);
+		final int[][] played = new int[3][];
+		for (int g=0; g<3; g++) {
+			GameEngine engine = new GameEngine(10, 20, new GameEngine.RandomSource(pieces, g));
+			engine.setPieceLimit(30);
+			engine.start();
+			int[] records = new int[40];
+			int count = 0;
+			while (engine.isGameOn()) {
+				engine.getBoard().undo();
+				brain.bestMove(engine.getBoard(), engine.getCurrentPiece(), engine.getHeight(), move);
+				engine.playMove(move.piece, move.x);
+				assertSame(move.piece, engine.getLastPiece());
+				assertEquals(move.x, engine.getLastX());
+				records[count++] = ReplayArchive.record(engine.getLastPiece().getId(), engine.getLastX(), engine.getLastY());
+			}
+			played[g] = java.util.Arrays.copyOf(records, count);
+			out.addGame(g, engine, records, count);
+		}
+		out.close();
+
+		ReplayArchive.Reader in = new ReplayArchive.Reader(name);
+		final int[] seen = new int[2];	// game, piece expected next
+		in.scan(new ReplayArchive.Visitor() {
+			public void placement(int game, int piece, int record) {
+				if (piece == 0 && game > seen[0]) {
+					assertEquals(played[seen[0]].length, seen[1]);
+					seen[0] = game;
+					seen[1] = 0;
+				}
+				assertEquals(seen[0], game);
+				assertEquals(seen[1]++, piece);
+				assertEquals(played[game][piece], record);
+			}
+		});
+		assertEquals(2, seen[0]);
+		assertEquals(played[2].length, seen[1]);
+		assertEquals(30, in.getPieceCount(1));
+		in.close();
+	}
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.*;
+
+/*
+  Unit tests for the Replay class.
+ */
+public class ReplayTest {
+	private Piece[] pieces;
+
+	@Before
+	public void setUp() throws Exception {
+		pieces = Piece.getPieces();
+	}
+
+	// Plays a random game, by moves or by verbs, and returns its log
+	private byte[] record(long seed, boolean verbs) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Replay.Recorder log = new Replay.Recorder(new GameEngine.RandomSource(pieces, seed), pieces, seed, out);
+		GameEngine engine = new GameEngine(10, 20, log);
+		log.start(engine);
+		Random random = new Random(seed);
+		while (engine.isGameOn()) {
+			if (verbs) {
+				log.tick(engine, random.nextInt(5));
+			}
+			else {
+				Piece piece = engine.getCurrentPiece();
+				for (int r=random.nextInt(4); r>0; r--) piece = piece.fastRotation();
+				log.playMove(engine, piece, random.nextInt(10 - piece.getWidth() + 1));
+			}
+		}
+		log.finish(engine);
+		assertEquals(out.size(), log.getBytes());
+		assertEquals(engine.getCount(), log.getPieceCount());
+		return out.toByteArray();
+	}
+
+	// Recorded games replay to the same end, and the logs are small
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (int seed=0; seed<10; seed++) {
+			for (int mode=0; mode<2; mode++) {
+				byte[] log = record(seed, mode == 1);
+				Replay.Result result = Replay.verify(new ByteArrayInputStream(log), pieces);
+				assertEquals(seed, result.seed);
+				assertEquals(10, result.width);
+				assertEquals(20, result.height);
+				assertTrue(result.count > 0);
+				if (mode == 0) {
+					assertEquals(result.count, result.moves);		// the last move tops out, so no piece follows it
+					assertTrue(log.length < 20 + 3*result.count);
+				}
+				else {
+					assertTrue(result.ticks > 0);
+				}
+			}
+		}
+	}
+
+	// Rejected moves change nothing, so they are not logged and the game still verifies
+	@Test
+	public void testRejectedMove() throws IOException {
+		byte[] clean = record(4, false);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Replay.Recorder log = new Replay.Recorder(new GameEngine.RandomSource(pieces, 4), pieces, 4, out);
+		GameEngine engine = new GameEngine(10, 20, log);
+		log.start(engine);
+		Random random = new Random(4);
+		while (engine.isGameOn()) {
+			Piece piece = engine.getCurrentPiece();
+			assertEquals(GameEngine.TICK_BLOCKED, log.playMove(engine, piece, 10));	// off the board
+			for (int r=random.nextInt(4); r>0; r--) piece = piece.fastRotation();
+			log.playMove(engine, piece, random.nextInt(10 - piece.getWidth() + 1));
+		}
+		assertEquals(GameEngine.TICK_OVER, log.playMove(engine, engine.getCurrentPiece(), 0));
+		log.finish(engine);
+
+		assertArrayEquals(clean, out.toByteArray());
+		Replay.Result result = Replay.verify(new ByteArrayInputStream(out.toByteArray()), pieces);
+		assertEquals(result.count, result.moves);
+	}
+
+	// A damaged log, or the wrong piece set, is caught
+	@Test
+	public void testDiverged() throws IOException {
+		byte[] log = record(3, false);
+		Replay.verify(new ByteArrayInputStream(log), pieces);
+
+		byte[] bad = log.clone();
+		bad[bad.length - 1] ^= 1;		// the board hash
+		assertDiverges(bad, pieces);
+
+		bad = log.clone();
+		assertEquals(5, bad[12] & 7);	// the first piece, after the 12 byte header
+		bad[12] = (byte) ((((bad[12] >>> 3) + 1) % pieces.length) << 3 | 5);
+		assertDiverges(bad, pieces);
+
+		try {
+			Replay.verify(new ByteArrayInputStream(java.util.Arrays.copyOf(log, log.length - 9)), pieces);
+			fail("truncated replay verified");
+		}
+		catch (EOFException expected) {
+		}
+
+		Piece[] others = PieceCatalog.getDefault().getRoots();
+		java.util.Collections.reverse(java.util.Arrays.asList(others));
+		assertDiverges(log, others);
+	}
+
+	private void assertDiverges(byte[] log, Piece[] set) throws IOException {
+		try {
+			Replay.verify(new ByteArrayInputStream(log), set);
+			fail("damaged replay verified");
+		}
+		catch (RuntimeException expected) {
+		}
+	}
+}
@@ -0,0 +1,325 @@
+// SessionHost.java
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ Hosts many games at once, each paced like JTetris: a gravity tick every
+ period (JTetris's 400ms timer), at which a brain gets one rotation and
+ one step sideways towards its chosen move before the piece falls a row,
+ as in JBrainTetris. Each session is a GameEngine whose loop runs on its
+ own thread, sleeping until its next tick; lost games start over until the
+ host is stopped.
+
+ On Java 21 and later every session gets a virtual thread, so tens of
+ thousands of sessions share a few carrier threads: a sleeping session
+ costs only its heap-held stack, and the carriers (one per core, or
+ -Djdk.virtualThreadScheduler.parallelism) are only busy while sessions
+ tick. On older runtimes each session gets a platform thread instead,
+ which is fine for hundreds of sessions but not thousands -- the class
+ looks the virtual thread executor up at run time so it still compiles
+ and runs there.
+
+ Ticks are scheduled at a fixed rate from each session's start, which is
+ staggered across the first period. How late each tick wakes up -- the
+ scheduling jitter -- goes into a host-wide histogram. Like the Swing
+ timer, a session that falls more than a period behind skips the ticks
+ it missed rather than running them back to back.
+
+ The brain is shared by all sessions, so it must be thread safe; DefaultBrain
+ without a cache is.
+*/
+public class SessionHost {
+	// Gravity period of JTetris, in milliseconds
+	public static final int DELAY = 400;
+
+	// Jitter histogram: bucket b counts ticks late by less than 2^b microseconds (and at least 2^(b-1))
+	public static final int JITTER_BUCKETS = 40;
+
+	private final Brain brain;
+	private final Piece[] pieces;
+	private final long periodNanos;
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<Integer, Session>();
+	private final AtomicLongArray jitter = new AtomicLongArray(JITTER_BUCKETS);
+	private volatile boolean running = true;
+
+	/**
+	 Creates a host whose sessions play the given first rotations with the
+	 brain, ticking every periodMillis.
+	*/
+	public SessionHost(Brain brain, Piece[] pieces, long periodMillis) {
+		this.brain = brain;
+		this.pieces = pieces.clone();
+		this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		ExecutorService virtualThreads = newVirtualThreadExecutor();
+		this.virtual = (virtualThreads != null);
+		this.executor = virtual ? virtualThreads : Executors.newCachedThreadPool();
+	}
+
+	/*
+	 Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21.
+	*/
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 Returns true if sessions run on virtual threads.
+	*/
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 One game and the loop that paces it. Its counters are updated by the
+	 session's thread and may be read from any thread.
+	*/
+	public class Session implements Runnable {
+		private final int id;
+		private final GameEngine engine;
+		private final Brain.Move move = new Brain.Move();
+		private final long firstTick;
+		private int plannedFor;				// the piece count the move was chosen for, 0 for none
+		private boolean hasMove;
+		private volatile Thread thread;
+
+		private volatile int count;			// of the current game
+		private volatile int score;
+		private volatile int rowsCleared;
+		private volatile int games;			// finished games
+		private volatile long ticks;		// gravity ticks over all games
+		private volatile long maxLateness;	// nanos
+
+		Session(int id, long seed, long firstTick) {
+			this.id = id;
+			this.engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, new GameEngine.RandomSource(pieces, seed));
+			this.firstTick = firstTick;
+		}
+
+		public void run() {
+			thread = Thread.currentThread();
+			engine.start();
+			long next = firstTick;
+			while (running) {
+				for (long wait = next - System.nanoTime(); wait > 0 && running; wait = next - System.nanoTime()) {
+					LockSupport.parkNanos(wait);	// unmounts a virtual thread from its carrier
+				}
+				if (!running) break;
+
+				long now = System.nanoTime();
+				long late = now - next;
+				recordJitter(late);
+				if (late > maxLateness) maxLateness = late;
+				next = (late > periodNanos) ? now + periodNanos : next + periodNanos;
+
+				tick();
+			}
+		}
+
+		/*
+		 One gravity tick: the brain's rotation and sideways step, then DOWN.
+		*/
+		private void tick() {
+			if (plannedFor != engine.getCount()) {	// a new piece: choose where it goes
+				Board board = engine.getBoard();
+				board.undo();
+				hasMove = brain.bestMove(board, engine.getCurrentPiece(), engine.getHeight(), move) != null;
+				plannedFor = engine.getCount();
+			}
+			if (hasMove) {
+				if (engine.getCurrentPiece() != move.piece) engine.tick(GameEngine.ROTATE);
+				if (engine.getCurrentX() < move.x) engine.tick(GameEngine.RIGHT);
+				else if (engine.getCurrentX() > move.x) engine.tick(GameEngine.LEFT);
+			}
+			engine.tick(GameEngine.DOWN);
+			ticks++;
+
+			count = engine.getCount();
+			score = engine.getScore();
+			rowsCleared = engine.getRowsCleared();
+			if (!engine.isGameOn()) {
+				games++;
+				plannedFor = 0;
+				engine.start();
+			}
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 Returns the number of pieces put in play in the current game.
+		*/
+		public int getCount() {
+			return count;
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		public int getRowsCleared() {
+			return rowsCleared;
+		}
+
+		/**
+		 Returns the number of games this session has lost so far.
+		*/
+		public int getGames() {
+			return games;
+		}
+
+		public long getTicks() {
+			return ticks;
+		}
+
+		/**
+		 Returns the latest any tick of this session has woken up, in nanoseconds.
+		*/
+		public long getMaxLateness() {
+			return maxLateness;
+		}
+
+		private void wake() {
+			Thread t = thread;
+			if (t != null) LockSupport.unpark(t);
+		}
+	}
+
+	private void recordJitter(long lateNanos) {
+		long micros = Math.max(0, lateNanos / 1000);
+		int bucket = Math.min(JITTER_BUCKETS-1, 64 - Long.numberOfLeadingZeros(micros));
+		jitter.incrementAndGet(bucket);
+	}
+
+	/**
+	 Starts n more sessions, seeded seed, seed+1, ..., with their first ticks
+	 spread evenly over the next period.
+	*/
+	public synchronized void start(int n, long seed) {
+		long now = System.nanoTime();
+		for (int i=0; i<n; i++) {
+			int id = sessions.size();
+			Session session = new Session(id, seed + i, now + periodNanos * i / n);
+			sessions.put(id, session);
+			executor.execute(session);
+		}
+	}
+
+	/**
+	 Returns the session with the given id (0 for the first one started), or null.
+	*/
+	public Session getSession(int id) {
+		return sessions.get(id);
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 Returns the total gravity ticks run by all sessions.
+	*/
+	public long getTicks() {
+		long total = 0;
+		for (Session session : sessions.values()) total += session.getTicks();
+		return total;
+	}
+
+	/**
+	 Returns an upper bound on the given percentile (0-100) of how late
+	 ticks have woken up, in microseconds -- a power of two, from the histogram.
+	*/
+	public long getJitterPercentile(double p) {
+		long total = 0;
+		for (int b=0; b<JITTER_BUCKETS; b++) total += jitter.get(b);
+		long rank = (long) Math.ceil(p / 100 * total);
+		long seen = 0;
+		for (int b=0; b<JITTER_BUCKETS; b++) {
+			seen += jitter.get(b);
+			if (seen >= rank && seen > 0) return 1L << b;
+		}
+		return 0;
+	}
+
+	/**
+	 Empties the jitter histogram, e.g. after a warm-up.
+	*/
+	public void resetJitter() {
+		for (int b=0; b<JITTER_BUCKETS; b++) jitter.set(b, 0);
+	}
+
+	/**
+	 Stops every session and waits for their threads to finish.
+	*/
+	public void stop() throws InterruptedException {
+		running = false;
+		for (Session session : sessions.values()) session.wake();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	// heap in use after a collection, roughly
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<3; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 Runs paced DefaultBrain sessions for a while and prints the ticks/sec,
+	 the jitter percentiles, the heap per session and the CPU the sessions
+	 used -- and from that, how many sessions a core could carry.
+	 Usage: java SessionHost [sessions] [seconds] [period ms]
+	*/
+	public static void main(String[] args) throws Exception {
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		int period = (args.length > 2) ? Integer.parseInt(args[2]) : DELAY;
+
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		com.sun.management.OperatingSystemMXBean os =
+			(com.sun.management.OperatingSystemMXBean) java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		SessionHost host = new SessionHost(new DefaultBrain(), Piece.getPieces(), period);
+		long before = usedHeap();
+		host.start(n, 1);
+		Thread.sleep(2L * period);	// every session is up and has ticked
+		long after = usedHeap();
+
+		Thread.sleep(period);	// settle after the collections
+		host.resetJitter();
+		long cpuStart = os.getProcessCpuTime();
+		long ticksStart = host.getTicks();
+		long start = System.nanoTime();
+		Thread.sleep(seconds * 1000L);
+		long wall = System.nanoTime() - start;
+		long cpu = os.getProcessCpuTime() - cpuStart;
+		long ticks = host.getTicks() - ticksStart;
+		int platformThreads = threads.getThreadCount();
+		host.stop();
+
+		double busyCores = (double) cpu / wall;
+		System.out.println(n + " sessions on " + (host.isVirtual() ? "virtual" : "platform") + " threads, "
+			+ cores + " cores, " + platformThreads + " platform threads, period " + period + "ms");
+		System.out.println("ticks/sec: " + (long) (ticks * 1e9 / wall) + " (" + (long) (n * 1000.0 / period) + " scheduled)");
+		System.out.println("jitter: p50 < " + host.getJitterPercentile(50) + "us, p99 < " + host.getJitterPercentile(99)
+			+ "us, p99.9 < " + host.getJitterPercentile(99.9) + "us, max < " + host.getJitterPercentile(100) + "us");
+		System.out.println("heap per session: " + ((after - before) / n) + " bytes");
+		System.out.println(String.format("cpu: %.2f cores busy, so about %d sessions per core at this period",
+			busyCores, (long) (n / Math.max(busyCores, 1e-3))));
+	}
+}
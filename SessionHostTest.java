@@ -0,0 +1,37 @@
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/*
+  Unit tests for the SessionHost class.
+ */
+public class SessionHostTest {
+	// Every session ticks and plays, and stop() ends them all
+	@Test
+	public void testSessions() throws Exception {
+		SessionHost host = new SessionHost(new DefaultBrain(), Piece.getPieces(), 2);
+		host.start(20, 1);
+		assertEquals(20, host.getSessionCount());
+		long deadline = System.currentTimeMillis() + 10000;
+		while (host.getSession(19).getCount() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		host.stop();
+
+		long ticks = 0;
+		for (int i=0; i<20; i++) {
+			SessionHost.Session session = host.getSession(i);
+			assertEquals(i, session.getId());
+			assertTrue(session.getTicks() > 0);
+			assertTrue(session.getScore() >= session.getCount());
+			ticks += session.getTicks();
+		}
+		assertTrue(host.getSession(19).getCount() >= 3);
+		assertEquals(ticks, host.getTicks());
+		assertTrue(host.getJitterPercentile(100) >= host.getJitterPercentile(50));
+
+		// stopped sessions tick no more
+		Thread.sleep(20);
+		assertEquals(ticks, host.getTicks());
+	}
+}
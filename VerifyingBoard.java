@@ -0,0 +1,78 @@
+// VerifyingBoard.java
+
+/**
+ A Board that checks itself. Behaves exactly like Board, but runs
+ sanityCheck() after every operation that changes the board, so
+ an inconsistency in the incremental bookkeeping is caught at the
+ operation that caused it rather than some time later.
+
+ Board itself does no checking so that its operations stay cheap;
+ use a VerifyingBoard in tests and when debugging, e.g.
+ <pre>
+ Board board = debugging ? new VerifyingBoard(w, h) : new Board(w, h);
+ </pre>
+ Each check recomputes the whole board, so every operation becomes
+ O(width x height).
+*/
+public class VerifyingBoard extends Board {
+	private long checks;		// number of sanity checks run so far
+
+	/**
+	 Creates an empty verifying board of the given width and height.
+	*/
+	public VerifyingBoard(int width, int height) {
+		super(width, height);
+		verify();
+	}
+
+	public int place(Piece piece, int x, int y) {
+		int result = super.place(piece, x, y);
+		verify();
+		return result;
+	}
+
+	public int clearRows() {
+		int result = super.clearRows();
+		verify();
+		return result;
+	}
+
+	public int addGarbage(int lines, int holeX) {
+		int result = super.addGarbage(lines, holeX);
+		verify();
+		return result;
+	}
+
+	public void undo() {
+		super.undo();
+		verify();
+	}
+
+	public void commit() {
+		super.commit();
+		verify();
+	}
+
+	public int checkpoint() {
+		int result = super.checkpoint();
+		verify();
+		return result;
+	}
+
+	public void rollback() {
+		super.rollback();
+		verify();
+	}
+
+	/**
+	 Returns how many times the board has been checked.
+	*/
+	public long getCheckCount() {
+		return checks;
+	}
+
+	private void verify() {
+		checks++;
+		sanityCheck();
+	}
+}